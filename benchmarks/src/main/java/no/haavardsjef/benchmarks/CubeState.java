@@ -0,0 +1,31 @@
+package no.haavardsjef.benchmarks;
+
+import no.haavardsjef.dataset.Dataset;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Benchmark state holding a synthetic dataset, with the cube size as parameters.
+ */
+@State(Scope.Benchmark)
+public class CubeState {
+
+	@Param({"200"})
+	public int numBands;
+
+	@Param({"145"})
+	public int imageSize;
+
+	@Param({"16"})
+	public int numClasses;
+
+	public Dataset dataset;
+
+	@Setup(Level.Trial)
+	public void createDataset() {
+		this.dataset = SyntheticData.createDataset(numBands, imageSize, imageSize, numClasses, 42L);
+	}
+}
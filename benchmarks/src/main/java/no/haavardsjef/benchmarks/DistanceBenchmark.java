@@ -0,0 +1,69 @@
+package no.haavardsjef.benchmarks;
+
+import no.haavardsjef.dataset.BandDistanceMatrix;
+import no.haavardsjef.utility.DistanceMeasure;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the superpixel statistics each distance measure depends on, of precomputing the full band distance matrix,
+ * and of a single Dataset.distance lookup.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DistanceBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class DistanceState extends CubeState {
+
+		@Param
+		public DistanceMeasure distanceMeasure;
+
+		@Setup(Level.Trial)
+		public void setupSuperpixels() {
+			dataset.setupSuperpixelContainer(100, 200f);
+			precomputeStatistics(this);
+		}
+	}
+
+	static void precomputeStatistics(DistanceState state) {
+		switch (state.distanceMeasure) {
+			case SP_MEAN_KL_DIVERGENCE -> state.dataset.calculateProbabilityDistributionsSPmean();
+			case SP_MEAN_COR_COF -> {
+				state.dataset.calculateProbabilityDistributionsSPmean();
+				state.dataset.calculateCorrelationCoefficients_SP();
+			}
+			case SP_LEVEL_KL_DIVERGENCE_L1NORM -> state.dataset.calculateKlDivergencesSuperpixelLevel();
+			case SP_MEAN_DISJOINT -> {
+				state.dataset.calculateProbabilityDistributionsSPmean();
+				state.dataset.calculateDisjointInfoSuperpixelLevel();
+			}
+			default -> {
+			}
+		}
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.SingleShotTime)
+	@Warmup(iterations = 1)
+	@Measurement(iterations = 3)
+	public void superpixelStatistics(DistanceState state) {
+		precomputeStatistics(state);
+	}
+
+	@Benchmark
+	public BandDistanceMatrix distanceMatrix(DistanceState state) {
+		state.dataset.clearDistanceMatrices();
+		return state.dataset.getDistanceMatrix(state.distanceMeasure);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public double distance(DistanceState state) {
+		return state.dataset.distance(state.distanceMeasure, 3, state.numBands - 5);
+	}
+}
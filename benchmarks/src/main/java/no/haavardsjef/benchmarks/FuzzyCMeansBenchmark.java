@@ -0,0 +1,60 @@
+package no.haavardsjef.benchmarks;
+
+import no.haavardsjef.fcm.FuzzyCMeans;
+import no.haavardsjef.utility.DistanceMeasure;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Cost of a single fitness evaluation, with the distance matrix already precomputed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FuzzyCMeansBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class FuzzyCMeansState extends CubeState {
+
+		@Param({"5", "10", "20", "30"})
+		public int numClusters;
+
+		public FuzzyCMeans fuzzyCMeans;
+		public List<List<Integer>> candidates;
+
+		@Setup(Level.Trial)
+		public void setupFuzzyCMeans() {
+			fuzzyCMeans = new FuzzyCMeans(dataset, 2.0, DistanceMeasure.PIXEL_EUCLIDEAN);
+			dataset.getDistanceMatrix(DistanceMeasure.PIXEL_EUCLIDEAN);
+
+			Random random = new Random(42L);
+			candidates = new ArrayList<>();
+			for (int i = 0; i < 64; i++) {
+				List<Integer> bands = new ArrayList<>(IntStream.range(0, numBands).boxed().toList());
+				Collections.shuffle(bands, random);
+				List<Integer> candidate = new ArrayList<>(bands.subList(0, numClusters));
+				Collections.sort(candidate);
+				candidates.add(candidate);
+			}
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Cursor {
+		int next;
+	}
+
+	@Benchmark
+	public float evaluate(FuzzyCMeansState state, Cursor cursor) {
+		List<Integer> candidate = state.candidates.get(cursor.next++ & 63);
+		return state.fuzzyCMeans.evaluate(candidate);
+	}
+}
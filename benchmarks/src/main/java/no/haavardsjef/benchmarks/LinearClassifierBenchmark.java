@@ -0,0 +1,75 @@
+package no.haavardsjef.benchmarks;
+
+import no.haavardsjef.classification.ClassificationResult;
+import no.haavardsjef.classification.ClassificationRunExecutor;
+import no.haavardsjef.classification.LinearClassifier;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Cost of a full classification run with the SGD trained linear classifier, on the bands and on random Fourier features,
+ * for comparison with {@link SVMClassifierBenchmark}. Training is sequential within a run, runsSequentialVsConcurrent
+ * compares running several runs one at a time with running them concurrently.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class LinearClassifierBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class ClassifierState extends CubeState {
+
+		@Param({"10", "30"})
+		public int numSelectedBands;
+
+		@Param({"0", "500"})
+		public int numRandomFeatures;
+
+		@Param({"0.1"})
+		public double trainingRatio;
+
+		public LinearClassifier classifier;
+		public List<Integer> selectedBands;
+
+		@Setup(Level.Trial)
+		public void setupClassifier() {
+			classifier = new LinearClassifier(dataset);
+			classifier.setRandomFeatures(numRandomFeatures, 1.0);
+			selectedBands = IntStream.range(0, numSelectedBands).map(i -> i * numBands / numSelectedBands).boxed().toList();
+		}
+	}
+
+	@State(Scope.Benchmark)
+	public static class RunsState extends CubeState {
+
+		public static final int NUM_RUNS = 8;
+
+		@Param({"1", "8"})
+		public int maxConcurrentRuns;
+
+		public LinearClassifier classifier;
+		public List<Integer> selectedBands;
+
+		@Setup(Level.Trial)
+		public void setupClassifier() {
+			classifier = new LinearClassifier(dataset);
+			classifier.setRunExecutor(new ClassificationRunExecutor(maxConcurrentRuns));
+			selectedBands = IntStream.range(0, 30).map(i -> i * numBands / 30).boxed().toList();
+		}
+	}
+
+	@Benchmark
+	public ClassificationResult evaluate(ClassifierState state) {
+		return state.classifier.evaluate(state.selectedBands, 1, state.trainingRatio);
+	}
+
+	@Benchmark
+	public ClassificationResult runsSequentialVsConcurrent(RunsState state) {
+		return state.classifier.evaluate(state.selectedBands, RunsState.NUM_RUNS, 0.1);
+	}
+}
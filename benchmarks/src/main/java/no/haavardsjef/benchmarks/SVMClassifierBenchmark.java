@@ -0,0 +1,49 @@
+package no.haavardsjef.benchmarks;
+
+import no.haavardsjef.classification.ClassificationResult;
+import no.haavardsjef.classification.SVMClassifier;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+/**
+ * Cost of training the SVM without grid search, and of a full classification run including grid search and prediction.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class SVMClassifierBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class ClassifierState extends CubeState {
+
+		@Param({"10", "30"})
+		public int numSelectedBands;
+
+		@Param({"0.1"})
+		public double trainingRatio;
+
+		public SVMClassifier classifier;
+		public List<Integer> selectedBands;
+
+		@Setup(Level.Trial)
+		public void setupClassifier() {
+			classifier = new SVMClassifier(dataset);
+			selectedBands = IntStream.range(0, numSelectedBands).map(i -> i * numBands / numSelectedBands).boxed().toList();
+		}
+	}
+
+	@Benchmark
+	public void train(ClassifierState state) {
+		state.classifier.justTrain(state.selectedBands, 1, state.trainingRatio);
+	}
+
+	@Benchmark
+	public ClassificationResult evaluate(ClassifierState state) {
+		return state.classifier.evaluate(state.selectedBands, 1, state.trainingRatio);
+	}
+}
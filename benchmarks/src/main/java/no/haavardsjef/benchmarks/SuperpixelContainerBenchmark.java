@@ -0,0 +1,32 @@
+package no.haavardsjef.benchmarks;
+
+import no.haavardsjef.superpixelsegmentation.SuperpixelContainer;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of segmenting the cube into superpixels and calculating the superpixel means.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SuperpixelContainerBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class SuperpixelState extends CubeState {
+
+		@Param({"100", "400"})
+		public int numSuperpixels;
+
+		@Param({"200"})
+		public float spatialWeight;
+	}
+
+	@Benchmark
+	public SuperpixelContainer construct(SuperpixelState state) {
+		return new SuperpixelContainer(state.dataset.getData(), state.numSuperpixels, state.spatialWeight);
+	}
+}
@@ -0,0 +1,68 @@
+package no.haavardsjef.benchmarks;
+
+import no.haavardsjef.fcm.FuzzyCMeans;
+import no.haavardsjef.pso.BinarySwarmPopulation;
+import no.haavardsjef.pso.PSOParams;
+import no.haavardsjef.pso.SwarmPopulation;
+import no.haavardsjef.utility.DistanceMeasure;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one PSO iteration, moving and evaluating every particle of a fresh swarm, generationally or asynchronously
+ * with the same number of evaluations, and of one iteration of the binary PSO.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SwarmPopulationBenchmark {
+
+	@State(Scope.Benchmark)
+	public static class SwarmState extends CubeState {
+
+		@Param({"10", "30"})
+		public int numBandsToSelect;
+
+		public FuzzyCMeans fuzzyCMeans;
+		public SwarmPopulation swarmPopulation;
+		public BinarySwarmPopulation binarySwarmPopulation;
+		private long seed;
+
+		@Setup(Level.Trial)
+		public void setupObjectiveFunction() {
+			fuzzyCMeans = new FuzzyCMeans(dataset, 2.0, DistanceMeasure.PIXEL_EUCLIDEAN);
+			dataset.getDistanceMatrix(DistanceMeasure.PIXEL_EUCLIDEAN);
+		}
+
+		@Setup(Level.Invocation)
+		public void createSwarm() {
+			PSOParams params = new PSOParams(numBandsToSelect);
+			swarmPopulation = new SwarmPopulation(params.numParticles, numBandsToSelect, dataset.getBounds(), fuzzyCMeans, seed);
+			binarySwarmPopulation = new BinarySwarmPopulation(params.numParticles, numBandsToSelect, dataset.getBounds(), fuzzyCMeans, seed++);
+		}
+	}
+
+	@Benchmark
+	public float iteration(SwarmState state) {
+		PSOParams params = new PSOParams(state.numBandsToSelect);
+		state.swarmPopulation.optimize(1, params.w, params.c1, params.c2, false, false);
+		return state.swarmPopulation.globalBestFitness;
+	}
+
+	@Benchmark
+	public float asynchronousIteration(SwarmState state) {
+		PSOParams params = new PSOParams(state.numBandsToSelect);
+		state.swarmPopulation.optimizeAsynchronously(params.numParticles, params.w, params.c1, params.c2);
+		return state.swarmPopulation.globalBestFitness;
+	}
+
+	@Benchmark
+	public float binaryIteration(SwarmState state) {
+		PSOParams params = new PSOParams(state.numBandsToSelect);
+		state.binarySwarmPopulation.optimize(1, params.w, params.c1, params.c2, false);
+		return state.binarySwarmPopulation.globalBestFitness;
+	}
+}
@@ -0,0 +1,56 @@
+package no.haavardsjef.benchmarks;
+
+import no.haavardsjef.dataset.Dataset;
+import org.nd4j.linalg.factory.Nd4j;
+
+import java.util.Random;
+
+/**
+ * Generates synthetic hyperspectral cubes, so that benchmarks do not depend on the datasets in data/.
+ */
+public class SyntheticData {
+
+	/**
+	 * Creates a cube where the image is split into vertical stripes, one per class. Every class has a smooth spectral
+	 * signature, and each pixel is its class signature plus gaussian noise, rounded to integers like the real sensors.
+	 * The first rows are left unlabelled.
+	 *
+	 * @param numBands   The number of bands.
+	 * @param height     The image height.
+	 * @param width      The image width.
+	 * @param numClasses The number of classes, not counting the background class.
+	 * @param seed       The seed for the random number generator.
+	 * @return A dataset backed by the synthetic cube.
+	 */
+	public static Dataset createDataset(int numBands, int height, int width, int numClasses, long seed) {
+		Random random = new Random(seed);
+		int numPixels = height * width;
+
+		double[][] signatures = new double[numClasses][numBands];
+		for (int c = 0; c < numClasses; c++) {
+			double frequency = 0.01 + 0.05 * random.nextDouble();
+			double phase = 2 * Math.PI * random.nextDouble();
+			for (int b = 0; b < numBands; b++) {
+				signatures[c][b] = 2000 + 1000 * Math.sin(b * frequency + phase) + 5 * b;
+			}
+		}
+
+		int[] labels = new int[numPixels];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				labels[y * width + x] = y < height / 20 ? 0 : 1 + (x * numClasses) / width;
+			}
+		}
+
+		float[] cube = new float[numBands * numPixels];
+		for (int p = 0; p < numPixels; p++) {
+			double[] signature = signatures[Math.max(labels[p], 1) - 1];
+			for (int b = 0; b < numBands; b++) {
+				cube[b * numPixels + p] = Math.round(signature[b] + 50 * random.nextGaussian());
+			}
+		}
+
+		return new Dataset(Nd4j.createFromArray(cube).reshape(numBands, height, width),
+				Nd4j.createFromArray(labels).reshape(height, width));
+	}
+}
@@ -5,9 +5,90 @@ import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * The result of a number of classification runs. Every run is accumulated into a confusion matrix as its predictions
+ * are produced, the individual predictions are only kept if requested, e.g. for McNemar's test.
+ */
 public class ClassificationResult {
 	private final int numClasses; // Number of classes, not counting the background class
-	private final List<List<Prediction>> runs;
+	private final List<Run> runs;
+
+	/**
+	 * The predictions of a single run. Not thread-safe, every run is accumulated by a single thread.
+	 */
+	public static class Run {
+		private final int numClasses;
+		private final int[][] confusionMatrix; // [trueLabel - 1][predictedLabel - 1]
+		private final List<Prediction> predictions; // null unless the predictions are kept
+		private int numCorrect;
+		private int numSamples;
+
+		/**
+		 * @param numClasses      Number of classes, not counting the background class
+		 * @param keepPredictions Whether to keep the individual predictions, in addition to the confusion matrix
+		 */
+		public Run(int numClasses, boolean keepPredictions) {
+			this.numClasses = numClasses;
+			this.confusionMatrix = new int[numClasses][numClasses];
+			this.predictions = keepPredictions ? new ArrayList<>() : null;
+		}
+
+		public void add(int pixelIndex, int trueLabel, int predictedLabel) {
+			confusionMatrix[trueLabel - 1][predictedLabel - 1]++;
+			numSamples++;
+			if (trueLabel == predictedLabel) {
+				numCorrect++;
+			}
+			if (predictions != null) {
+				predictions.add(new Prediction(pixelIndex, trueLabel, predictedLabel));
+			}
+		}
+
+		public double getOverallAccuracy() {
+			return (double) numCorrect / numSamples;
+		}
+
+		/**
+		 * @return Cohen's kappa, the agreement between predicted and true labels corrected for chance agreement.
+		 */
+		public double getKappa() {
+			double expectedAgreement = 0.0;
+			for (int c = 0; c < numClasses; c++) {
+				long numTrue = 0;
+				long numPredicted = 0;
+				for (int k = 0; k < numClasses; k++) {
+					numTrue += confusionMatrix[c][k];
+					numPredicted += confusionMatrix[k][c];
+				}
+				expectedAgreement += (double) numTrue * numPredicted;
+			}
+			expectedAgreement /= (double) numSamples * numSamples;
+			return (getOverallAccuracy() - expectedAgreement) / (1.0 - expectedAgreement);
+		}
+
+		public int[][] getConfusionMatrix() {
+			return confusionMatrix;
+		}
+
+		public int getNumCorrect() {
+			return numCorrect;
+		}
+
+		public int getNumSamples() {
+			return numSamples;
+		}
+
+		/**
+		 * @return The predictions, in the order they were added.
+		 * @throws IllegalStateException if the run was created without keeping the predictions.
+		 */
+		public List<Prediction> getPredictions() {
+			if (predictions == null) {
+				throw new IllegalStateException("Predictions were not kept for this run");
+			}
+			return predictions;
+		}
+	}
 
 	/**
 	 * @param numClasses Number of classes, not counting the background class
@@ -17,8 +98,24 @@ public class ClassificationResult {
 		runs = new ArrayList<>();
 	}
 
+	public void addRun(Run run) {
+		runs.add(run);
+	}
+
 	public void addRun(List<Prediction> predictions) {
-		runs.add(predictions);
+		Run run = new Run(numClasses, true);
+		for (Prediction prediction : predictions) {
+			run.add(prediction.pixelIndex(), prediction.trueLabel(), prediction.predictedLabel());
+		}
+		runs.add(run);
+	}
+
+	public int getNumRuns() {
+		return runs.size();
+	}
+
+	public Run getRun(int runIndex) {
+		return runs.get(runIndex);
 	}
 
 
@@ -29,15 +126,8 @@ public class ClassificationResult {
 	 */
 	public DescriptiveStatistics getOverallAccuracy() {
 		DescriptiveStatistics stats = new DescriptiveStatistics();
-		for (List<Prediction> run : runs) {
-			int correct = 0;
-			for (Prediction pred : run) {
-				if (pred.predictedLabel() == pred.trueLabel()) {
-					correct += 1;
-				}
-			}
-			double acc = (double) correct / run.size();
-			stats.addValue(acc);
+		for (Run run : runs) {
+			stats.addValue(run.getOverallAccuracy());
 		}
 		return stats;
 	}
@@ -49,20 +139,14 @@ public class ClassificationResult {
 	 */
 	public DescriptiveStatistics getAverageOverallAccuracy() {
 		DescriptiveStatistics stats = new DescriptiveStatistics();
-		int[] trueLabels = new int[numClasses];
-		int[] correctlyPredicted = new int[numClasses];
-
-		for (List<Prediction> run : runs) {
-			for (Prediction pred : run) {
-				trueLabels[pred.trueLabel() - 1] += 1;
-				if (pred.trueLabel() == pred.predictedLabel()) {
-					correctlyPredicted[pred.trueLabel() - 1] += 1;
-				}
-			}
-		}
+		int[][] confusionMatrix = getConfusionMatrix();
 
 		for (int i = 0; i < numClasses; i++) {
-			double acc = (double) correctlyPredicted[i] / trueLabels[i];
+			int trueLabels = 0;
+			for (int j = 0; j < numClasses; j++) {
+				trueLabels += confusionMatrix[i][j];
+			}
+			double acc = (double) confusionMatrix[i][i] / trueLabels;
 			stats.addValue(acc);
 		}
 
@@ -70,4 +154,39 @@ public class ClassificationResult {
 		return stats;
 	}
 
+	/**
+	 * Gets Cohen's kappa for each run
+	 *
+	 * @return A descriptive statistics object containing the kappa coefficient for each run
+	 */
+	public DescriptiveStatistics getKappa() {
+		DescriptiveStatistics stats = new DescriptiveStatistics();
+		for (Run run : runs) {
+			stats.addValue(run.getKappa());
+		}
+		return stats;
+	}
+
+	/**
+	 * @return The confusion matrix summed over all runs, indexed [trueLabel - 1][predictedLabel - 1].
+	 */
+	public int[][] getConfusionMatrix() {
+		int[][] confusionMatrix = new int[numClasses][numClasses];
+		for (Run run : runs) {
+			for (int i = 0; i < numClasses; i++) {
+				for (int j = 0; j < numClasses; j++) {
+					confusionMatrix[i][j] += run.getConfusionMatrix()[i][j];
+				}
+			}
+		}
+		return confusionMatrix;
+	}
+
+	/**
+	 * Saves the confusion matrix summed over all runs.
+	 */
+	public void saveConfusionMatrixToCSV(String filePath) {
+		ClassificationUtilities.saveConfusionMatrixToCSV(getConfusionMatrix(), filePath);
+	}
+
 }
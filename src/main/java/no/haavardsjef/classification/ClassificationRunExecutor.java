@@ -0,0 +1,111 @@
+package no.haavardsjef.classification;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs independent classification runs concurrently. Every run gets its own Random, seeded from a single seed,
+ * so the result is reproducible regardless of the number of threads, and the runs are merged in run order.
+ */
+@Log4j2
+public class ClassificationRunExecutor {
+
+	// libsvm allocates a kernel cache of cache_size (100 MB) per trained model, on top of the samples themselves
+	private static final long SVM_CACHE_BYTES = 100L * 1024 * 1024;
+
+	@FunctionalInterface
+	public interface ClassificationRun {
+		/**
+		 * @param runIndex The index of the run, in [0, numRuns).
+		 * @param random   The random generator of this run, not shared with other runs.
+		 * @return The accumulated predictions of the run.
+		 */
+		ClassificationResult.Run run(int runIndex, Random random);
+	}
+
+	private final int maxConcurrentRuns;
+
+	/**
+	 * @param maxConcurrentRuns The maximum number of runs in flight at once, 1 to run sequentially.
+	 */
+	public ClassificationRunExecutor(int maxConcurrentRuns) {
+		this.maxConcurrentRuns = Math.max(1, maxConcurrentRuns);
+	}
+
+	/**
+	 * Creates an executor running as many runs at once as fit in the memory budget, but no more than there are cores.
+	 *
+	 * @param memoryBudgetBytes The memory the concurrent runs may use together.
+	 * @param numTestSamples    The number of test samples predicted per run.
+	 */
+	public static ClassificationRunExecutor withMemoryBudget(long memoryBudgetBytes, int numTestSamples) {
+		// The predicted labels, the predictions themselves are accumulated into a confusion matrix
+		long bytesPerRun = SVM_CACHE_BYTES + numTestSamples * (long) Integer.BYTES;
+		int maxConcurrentRuns = (int) Math.min(Runtime.getRuntime().availableProcessors(), memoryBudgetBytes / bytesPerRun);
+		return new ClassificationRunExecutor(maxConcurrentRuns);
+	}
+
+	/**
+	 * Creates an executor using at most half of the maximum heap size.
+	 */
+	public static ClassificationRunExecutor withDefaultMemoryBudget(int numTestSamples) {
+		return withMemoryBudget(Runtime.getRuntime().maxMemory() / 2, numTestSamples);
+	}
+
+	/**
+	 * Executes the runs and merges them into a classification result, in run order.
+	 *
+	 * @param numRuns    The number of runs.
+	 * @param seed       The seed the random generators of the runs are derived from.
+	 * @param numClasses The number of classes, not counting the background class.
+	 * @param run        The classification run to execute.
+	 */
+	public ClassificationResult execute(int numRuns, long seed, int numClasses, ClassificationRun run) {
+		Random seedGenerator = new Random(seed);
+		long[] seeds = new long[numRuns];
+		for (int i = 0; i < numRuns; i++) {
+			seeds[i] = seedGenerator.nextLong();
+		}
+
+		ClassificationResult classificationResult = new ClassificationResult(numClasses);
+		int numThreads = Math.min(maxConcurrentRuns, numRuns);
+		if (numThreads <= 1) {
+			for (int i = 0; i < numRuns; i++) {
+				classificationResult.addRun(run.run(i, new Random(seeds[i])));
+			}
+			return classificationResult;
+		}
+
+		log.info("Executing {} classification runs, {} at a time", numRuns, numThreads);
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads, runnable -> {
+			Thread thread = new Thread(runnable, "classification-run");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			List<Future<ClassificationResult.Run>> futures = new ArrayList<>(numRuns);
+			for (int i = 0; i < numRuns; i++) {
+				int runIndex = i;
+				futures.add(executor.submit(() -> run.run(runIndex, new Random(seeds[runIndex]))));
+			}
+			for (Future<ClassificationResult.Run> future : futures) {
+				classificationResult.addRun(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted during classification", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Classification run failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return classificationResult;
+	}
+}
@@ -0,0 +1,126 @@
+package no.haavardsjef.classification;
+
+import lombok.extern.log4j.Log4j2;
+import no.haavardsjef.dataset.Dataset;
+import no.haavardsjef.metrics.Metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A fast alternative to the libsvm based classifiers: multi-class logistic regression trained with SGD, optionally on
+ * random Fourier features approximating the RBF kernel. Training is linear in the number of samples, which makes it
+ * suited as a proxy evaluator for large band selection sweeps, with the finalists confirmed by the {@link SVMClassifier}.
+ */
+@Log4j2
+public class LinearClassifier implements IClassifier {
+
+	Dataset dataset;
+	private final Random random = new Random();
+	private ClassificationRunExecutor runExecutor;
+	private int numRandomFeatures = 0;
+	private double gamma = 1.0;
+	private int numEpochs = 30;
+	private double learningRate = 1.0;
+	private double regularization = 1e-4;
+
+	public LinearClassifier(Dataset dataset) {
+		this.dataset = dataset;
+	}
+
+	/**
+	 * Sets the seed all splits, random features and shuffles are derived from, making the classification reproducible.
+	 */
+	public void setSeed(long seed) {
+		this.random.setSeed(seed);
+	}
+
+	/**
+	 * @param runExecutor The executor for the classification runs, or null to fit as many concurrent runs as the heap allows.
+	 */
+	public void setRunExecutor(ClassificationRunExecutor runExecutor) {
+		this.runExecutor = runExecutor;
+	}
+
+	/**
+	 * Trains on random Fourier features instead of the normalized bands, approximating an RBF kernel SVM.
+	 *
+	 * @param numRandomFeatures The number of random features, 0 to train on the bands directly.
+	 * @param gamma             The gamma of the approximated RBF kernel.
+	 */
+	public void setRandomFeatures(int numRandomFeatures, double gamma) {
+		this.numRandomFeatures = numRandomFeatures;
+		this.gamma = gamma;
+	}
+
+	/**
+	 * @param numEpochs      The number of passes over the training samples.
+	 * @param learningRate   The initial SGD step size.
+	 * @param regularization The L2 penalty on the weights.
+	 */
+	public void setTrainingParameters(int numEpochs, double learningRate, double regularization) {
+		this.numEpochs = numEpochs;
+		this.learningRate = learningRate;
+		this.regularization = regularization;
+	}
+
+	public ClassificationResult evaluate(List<Integer> selectedBands, int numClassificationRuns) {
+		return evaluate(selectedBands, numClassificationRuns, 0.1);
+	}
+
+	public ClassificationResult evaluate(List<Integer> selectedBands, int numClassificationRuns, double trainingRatio) {
+		log.info("Evaluating linear classifier with selected bands: " + selectedBands);
+
+
+		// Load features and ground truth
+		int[] groundTruth = dataset.getGroundTruthFlattenedAsArray();
+		SampleMatrix bandSamples = SampleMatrix.fromLabelledPixels(dataset.getFeatureMatrix(selectedBands), selectedBands.size(), groundTruth);
+		bandSamples.normalize();
+
+		// The random features are drawn once and shared by all runs
+		SampleMatrix samples = numRandomFeatures > 0
+				? new RandomFourierFeatures(selectedBands.size(), numRandomFeatures, gamma, random).transform(bandSamples)
+				: bandSamples;
+
+		// Count number of classes
+		int numClasses = Arrays.stream(groundTruth).max().getAsInt() + 1;
+
+
+		// Run the independent classification runs concurrently, each with its own shuffle of the samples
+		// Using numClasses - 1 because the background class is not included in the classification result
+		int numTestSamples = (int) (samples.size() * (1 - trainingRatio));
+		ClassificationRunExecutor executor = runExecutor != null ? runExecutor : ClassificationRunExecutor.withDefaultMemoryBudget(numTestSamples);
+		ClassificationResult classificationResult = executor.execute(numClassificationRuns, random.nextLong(), numClasses - 1, (run, runRandom) -> {
+
+
+			// Shuffle and split into training and test set
+			int[][] split = samples.stratifiedSplit(trainingRatio, runRandom);
+			int[] trainingRows = split[0];
+			int[] testRows = split[1];
+
+
+			log.info("Training linear classifier with " + trainingRows.length + " samples");
+			long startTime = System.nanoTime();
+			SoftmaxRegression model = new SoftmaxRegression(numClasses - 1, samples.getNumFeatures());
+			model.fit(samples, trainingRows, numEpochs, learningRate, regularization, runRandom);
+			long elapsed = Metrics.timer(Metrics.LINEAR_TRAINING).recordSince(startTime);
+			log.info("Training took " + elapsed / 1_000_000 + " ms");
+
+			startTime = System.nanoTime();
+			int[] predictedLabels = model.predict(samples, testRows);
+			ClassificationResult.Run result = new ClassificationResult.Run(numClasses - 1, false);
+			for (int i = 0; i < testRows.length; i++) {
+				result.add(samples.getPixelIndex(testRows[i]), samples.getLabel(testRows[i]), predictedLabels[i]);
+			}
+			Metrics.timer(Metrics.LINEAR_PREDICTION).recordSince(startTime);
+			log.info("Accuracy: " + result.getOverallAccuracy() * 100 + "%");
+			return result;
+		});
+
+		String filePath = "confusion_matrix.csv";
+		classificationResult.saveConfusionMatrixToCSV(filePath);
+		log.info("Confusion matrix saved to " + filePath);
+		return classificationResult;
+	}
+}
@@ -0,0 +1,101 @@
+package no.haavardsjef.classification;
+
+/**
+ * Predictions of several models on the same test samples, aligned by index, for pairwise McNemar's tests.
+ * Which samples each model classified correctly is stored as a bitset, so a contingency table is a few popcounts.
+ */
+public class PairedComparison {
+
+	private final int numModels;
+	private final int numSamples;
+	private final int[] pixelIndices;
+	private final int[] trueLabels;
+	private final int[][] predictedLabels;
+	private final long[][] correct; // [model][word], bit i set if the model classified sample i correctly
+
+	/**
+	 * @param pixelIndices    The pixel index of each test sample.
+	 * @param trueLabels      The true label of each test sample.
+	 * @param predictedLabels The labels predicted by each model, shape: [numModels][numSamples].
+	 */
+	public PairedComparison(int[] pixelIndices, int[] trueLabels, int[][] predictedLabels) {
+		this.numModels = predictedLabels.length;
+		this.numSamples = trueLabels.length;
+		this.pixelIndices = pixelIndices;
+		this.trueLabels = trueLabels;
+		this.predictedLabels = predictedLabels;
+		this.correct = new long[numModels][(numSamples + 63) >> 6];
+		for (int m = 0; m < numModels; m++) {
+			if (predictedLabels[m].length != numSamples) {
+				throw new IllegalArgumentException("Model " + m + " has " + predictedLabels[m].length + " predictions, expected " + numSamples);
+			}
+			for (int i = 0; i < numSamples; i++) {
+				if (predictedLabels[m][i] == trueLabels[i]) {
+					correct[m][i >> 6] |= 1L << i;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the contingency table of two models, in the layout expected by {@link McNemarsTest}:
+	 * [0][0] both correct, [0][1] only model1 correct, [1][0] only model2 correct, [1][1] both wrong.
+	 */
+	public int[][] getContingencyTable(int model1, int model2) {
+		long[] correct1 = correct[model1];
+		long[] correct2 = correct[model2];
+		int bothCorrect = 0;
+		int onlyFirstCorrect = 0;
+		int onlySecondCorrect = 0;
+		for (int w = 0; w < correct1.length; w++) {
+			bothCorrect += Long.bitCount(correct1[w] & correct2[w]);
+			onlyFirstCorrect += Long.bitCount(correct1[w] & ~correct2[w]);
+			onlySecondCorrect += Long.bitCount(~correct1[w] & correct2[w]);
+		}
+		int bothWrong = numSamples - bothCorrect - onlyFirstCorrect - onlySecondCorrect;
+		return new int[][]{{bothCorrect, onlyFirstCorrect}, {onlySecondCorrect, bothWrong}};
+	}
+
+	/**
+	 * @return The McNemar's test p-value of every pair of models, symmetric, with 1 on the diagonal.
+	 */
+	public double[][] getPValues() {
+		double[][] pValues = new double[numModels][numModels];
+		for (int i = 0; i < numModels; i++) {
+			pValues[i][i] = 1.0;
+			for (int j = i + 1; j < numModels; j++) {
+				pValues[i][j] = McNemarsTest.computePValue(getContingencyTable(i, j));
+				pValues[j][i] = pValues[i][j];
+			}
+		}
+		return pValues;
+	}
+
+	public double getOverallAccuracy(int model) {
+		int numCorrect = 0;
+		for (long word : correct[model]) {
+			numCorrect += Long.bitCount(word);
+		}
+		return (double) numCorrect / numSamples;
+	}
+
+	public int getNumModels() {
+		return numModels;
+	}
+
+	public int getNumSamples() {
+		return numSamples;
+	}
+
+	public int[] getPixelIndices() {
+		return pixelIndices;
+	}
+
+	public int[] getTrueLabels() {
+		return trueLabels;
+	}
+
+	public int[] getPredictedLabels(int model) {
+		return predictedLabels[model];
+	}
+}
@@ -0,0 +1,71 @@
+package no.haavardsjef.classification;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Random Fourier features, z(x) = sqrt(2) * cos(Wx + b), for which z(x) . z(y) / D approximates the RBF kernel
+ * exp(-gamma * |x - y|^2) used by libsvm. A linear model on the features thereby approximates a kernel SVM.
+ * The usual 1 / sqrt(D) factor is left out, so the features have unit variance and SGD step sizes do not depend on D.
+ */
+public class RandomFourierFeatures {
+
+	private final int numInputs;
+	private final int numOutputs;
+	private final double[] projection; // shape: [numOutputs * numInputs], row-major, drawn from N(0, 2 * gamma)
+	private final double[] offsets; // drawn from U[0, 2 * pi)
+
+	/**
+	 * @param numInputs  The number of features of the input samples.
+	 * @param numOutputs The number of random features, D.
+	 * @param gamma      The gamma of the approximated RBF kernel.
+	 */
+	public RandomFourierFeatures(int numInputs, int numOutputs, double gamma, Random random) {
+		this.numInputs = numInputs;
+		this.numOutputs = numOutputs;
+		this.projection = new double[numOutputs * numInputs];
+		this.offsets = new double[numOutputs];
+		double standardDeviation = Math.sqrt(2 * gamma);
+		for (int i = 0; i < projection.length; i++) {
+			projection[i] = random.nextGaussian() * standardDeviation;
+		}
+		for (int i = 0; i < numOutputs; i++) {
+			offsets[i] = random.nextDouble() * 2 * Math.PI;
+		}
+	}
+
+	/**
+	 * Maps every sample to the random features, in parallel.
+	 *
+	 * @return A new matrix with the same labels and pixel indices, and numOutputs features per sample.
+	 */
+	public SampleMatrix transform(SampleMatrix samples) {
+		if (samples.getNumFeatures() != numInputs) {
+			throw new IllegalArgumentException("Expected " + numInputs + " features, got " + samples.getNumFeatures());
+		}
+		int numSamples = samples.size();
+		double[] inputs = samples.getFeatures();
+		double[] outputs = new double[numSamples * numOutputs];
+		double scale = Math.sqrt(2.0);
+		IntStream.range(0, numSamples).parallel().forEach(i -> {
+			int inputOffset = i * numInputs;
+			int outputOffset = i * numOutputs;
+			for (int d = 0; d < numOutputs; d++) {
+				double dot = offsets[d];
+				int projectionOffset = d * numInputs;
+				for (int f = 0; f < numInputs; f++) {
+					dot += projection[projectionOffset + f] * inputs[inputOffset + f];
+				}
+				outputs[outputOffset + d] = scale * Math.cos(dot);
+			}
+		});
+
+		int[] labels = new int[numSamples];
+		int[] pixelIndices = new int[numSamples];
+		for (int i = 0; i < numSamples; i++) {
+			labels[i] = samples.getLabel(i);
+			pixelIndices[i] = samples.getPixelIndex(i);
+		}
+		return new SampleMatrix(outputs, labels, pixelIndices, numOutputs);
+	}
+}
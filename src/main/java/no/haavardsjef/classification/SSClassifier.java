@@ -3,18 +3,35 @@ package no.haavardsjef.classification;
 import libsvm.*;
 import lombok.extern.log4j.Log4j2;
 import no.haavardsjef.dataset.Dataset;
+import no.haavardsjef.metrics.Metrics;
+import no.haavardsjef.superpixelsegmentation.SuperpixelContainer;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
 
-import static no.haavardsjef.classification.ClassificationUtilities.saveConfusionMatrixToCSV;
-import static no.haavardsjef.classification.ClassificationUtilities.splitSamples;
+import static no.haavardsjef.classification.ClassificationUtilities.predictBatch;
 
 @Log4j2
 public class SSClassifier implements IClassifier {
 
+	public enum Mode {
+		/**
+		 * One sample per labelled pixel, with the superpixel index of the pixel as an additional feature.
+		 */
+		PIXEL,
+		/**
+		 * One sample per superpixel, the mean spectrum of its pixels, labelled by the majority of its training pixels.
+		 * Every superpixel is predicted once, and the prediction is broadcast to its pixels.
+		 */
+		SUPERPIXEL_MEANS
+	}
+
 	Dataset dataset;
+	private final Random random = new Random();
+	private Mode mode = Mode.PIXEL;
+	private double smoothingWeight = 0.0;
 
 	public SSClassifier(Dataset dataset) {
 		this.dataset = dataset;
@@ -27,153 +44,239 @@ public class SSClassifier implements IClassifier {
 	}
 
 
+	/**
+	 * @param mode How the samples are built. SUPERPIXEL_MEANS requires the superpixel container of the dataset to be set up.
+	 */
+	public void setMode(Mode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * Smooths the mean spectrum of every superpixel with those of its neighbours, in SUPERPIXEL_MEANS mode.
+	 *
+	 * @param smoothingWeight The weight of the average of the neighbouring superpixels, in [0, 1]. 0 disables smoothing.
+	 */
+	public void setNeighbourhoodSmoothing(double smoothingWeight) {
+		if (smoothingWeight < 0 || smoothingWeight > 1) {
+			throw new IllegalArgumentException("Smoothing weight must be in [0, 1], got " + smoothingWeight);
+		}
+		this.smoothingWeight = smoothingWeight;
+	}
+
+
 	public ClassificationResult evaluate(List<Integer> selectedBands, int numClassificationRuns) {
+		if (mode == Mode.SUPERPIXEL_MEANS) {
+			return evaluateSuperpixelMeans(selectedBands, numClassificationRuns);
+		}
 		log.info("Evaluating SpectralSpatial classifier with selected bands: " + selectedBands);
 
 
 		// Load features and ground truth
 		int[] groundTruth = dataset.getGroundTruthFlattenedAsArray();
-		double[][] pixelValuesForSelectedBands = dataset.getBandsFlattened(selectedBands).transpose().toDoubleMatrix();
+		double[] pixelValuesForSelectedBands = dataset.getFeatureMatrix(selectedBands);
 
 		// Count number of classes
 		int numClasses = Arrays.stream(groundTruth).max().getAsInt() + 1;
 
-
-		// Verify that the number of ground truths matches the number of pixels
-		if (pixelValuesForSelectedBands.length != groundTruth.length) {
-			throw new RuntimeException("The number of ground truths does not match the number of pixels");
-		}
-
-		// Create samples
-		Sample[] samples = new Sample[groundTruth.length];
-		for (int i = 0; i < pixelValuesForSelectedBands.length; i++) {
-			double[] features = new double[pixelValuesForSelectedBands[i].length + 1];
-			features[0] = dataset.getSuperpixelIndex(i);
-			System.arraycopy(pixelValuesForSelectedBands[i], 0, features, 1, pixelValuesForSelectedBands[i].length);
-			System.out.println(features.length);
-			samples[i] = new Sample(i, groundTruth[i], features);
+		// Create samples, with the superpixel index as the first feature
+		int numBands = selectedBands.size();
+		int numFeatures = numBands + 1;
+		double[] pixelFeatures = new double[groundTruth.length * numFeatures];
+		for (int i = 0; i < groundTruth.length; i++) {
+			pixelFeatures[i * numFeatures] = dataset.getSuperpixelIndex(i);
+			System.arraycopy(pixelValuesForSelectedBands, i * numBands, pixelFeatures, i * numFeatures + 1, numBands);
 		}
+		SampleMatrix samples = SampleMatrix.fromLabelledPixels(pixelFeatures, numFeatures, groundTruth);
+		samples.normalize();
 
 
-		// Create classification result
+		// Run the independent classification runs concurrently, each with its own shuffle of the samples
 		// Using numClasses - 1 because the background class is not included in the classification result
-		ClassificationResult classificationResult = new ClassificationResult(numClasses - 1);
-
-
-		// Run classification runs
-		for (int i = 0; i < numClassificationRuns; i++) {
+		double trainingRatio = 0.1;
+		int numTestSamples = (int) (samples.size() * (1 - trainingRatio));
+		ClassificationRunExecutor executor = ClassificationRunExecutor.withDefaultMemoryBudget(numTestSamples);
+		ClassificationResult classificationResult = executor.execute(numClassificationRuns, random.nextLong(), numClasses - 1, (run, runRandom) -> {
 
 
 			// Shuffle and split into training and test set
-			double trainingRatio = 0.1;
-			Sample[][] split = splitSamples(samples, trainingRatio);
-			Sample[] trainingSamples = split[0];
-			Sample[] testSamples = split[1];
-
+			int[][] split = samples.stratifiedSplit(trainingRatio, runRandom);
+			int[] trainingRows = split[0];
+			int[] testRows = split[1];
 
-			svm_model model = train(trainingSamples);
 
-			List<Prediction> predictions = evaluateAccuracy(model, testSamples, numClasses);
-			classificationResult.addRun(predictions);
-
-		}
+			svm_model model = train(samples, trainingRows);
 
+			return evaluateAccuracy(model, samples, testRows, numClasses, false);
+		});
 
+		String filePath = "confusion_matrix.csv";
+		classificationResult.saveConfusionMatrixToCSV(filePath);
+		log.info("Confusion matrix saved to " + filePath);
 		return classificationResult;
 
 	}
 
 
-	private svm_model train(Sample[] data) {
+	private ClassificationResult evaluateSuperpixelMeans(List<Integer> selectedBands, int numClassificationRuns) {
+		log.info("Evaluating SpectralSpatial classifier on superpixel means with selected bands: " + selectedBands);
+		SuperpixelContainer superpixelContainer = dataset.getSuperpixelContainer();
+		int[] superpixelLabels = superpixelContainer.getSuperpixelLabels();
+		int numSuperpixels = superpixelContainer.getNumSuperpixels();
+		int numBands = selectedBands.size();
 
+		// Count number of classes
+		int[] groundTruth = dataset.getGroundTruthFlattenedAsArray();
+		int numClasses = Arrays.stream(groundTruth).max().getAsInt() + 1;
 
-		log.info("Training SVM classifier with " + data.length + " samples");
-		svm_problem trainingProblem = createProblem(data);
+		// The features of every superpixel, normalized once and shared by all runs
+		double[] features = superpixelFeatures(superpixelContainer, selectedBands);
+		SampleMatrix.normalize(features, numBands);
+		int[] superpixelIndices = new int[numSuperpixels];
+		Arrays.setAll(superpixelIndices, s -> s);
 
-		// Find the best parameters using grid search
-		svm_parameter bestParam = SVMParameterSearch.findBestParameters(trainingProblem);
+		// The labelled pixels are still what is split and evaluated, their features are those of their superpixel
+		int[] labelledPixels = IntStream.range(0, groundTruth.length).filter(p -> groundTruth[p] != 0).toArray();
+		int[] pixelLabels = Arrays.stream(labelledPixels).map(p -> groundTruth[p]).toArray();
 
-		long startTime = System.currentTimeMillis();
-		svm_model model = svm.svm_train(trainingProblem, bestParam);
-		long endTime = System.currentTimeMillis();
-		log.info("Training took " + (endTime - startTime) + " ms, excluding parameter search");
 
-		return model;
-	}
+		// Run the independent classification runs concurrently, each with its own shuffle of the samples
+		// Using numClasses - 1 because the background class is not included in the classification result
+		double trainingRatio = 0.1;
+		int numTestSamples = (int) (labelledPixels.length * (1 - trainingRatio));
+		ClassificationRunExecutor executor = ClassificationRunExecutor.withDefaultMemoryBudget(numTestSamples);
+		ClassificationResult classificationResult = executor.execute(numClassificationRuns, random.nextLong(), numClasses - 1, (run, runRandom) -> {
 
 
-	private static int predict(svm_model model, double[] features) {
-		svm_node[] nodes = new svm_node[features.length];
-		for (int i = 0; i < features.length; i++) {
-			nodes[i] = new svm_node();
-			nodes[i].index = i + 1;
-			nodes[i].value = features[i];
-		}
+			// Shuffle and split the labelled pixels into training and test set
+			int[][] split = SampleMatrix.stratifiedSplit(pixelLabels, trainingRatio, runRandom);
+			int[] trainingPixels = Arrays.stream(split[0]).map(row -> labelledPixels[row]).toArray();
+			int[] testPixels = Arrays.stream(split[1]).map(row -> labelledPixels[row]).toArray();
 
-		double prediction = svm.svm_predict(model, nodes);
-		return (int) prediction;
-	}
-
-	private static List<Prediction> evaluateAccuracy(svm_model model, Sample[] testSamples, int numClasses) {
-		log.info("Evaluating accuracy of SVM classifier with " + testSamples.length + " samples");
-		long startTime = System.currentTimeMillis();
-		int numCorrectPredictions = 0;
-		int[][] confusionMatrix = new int[numClasses][numClasses];
+			// Label every superpixel by its training pixels, superpixels without training pixels are not trained on
+			int[] labels = majorityLabels(trainingPixels, groundTruth, superpixelLabels, numSuperpixels, numClasses);
+			SampleMatrix superpixels = new SampleMatrix(features, labels, superpixelIndices, numBands);
+			int[] trainingRows = IntStream.range(0, numSuperpixels).filter(s -> labels[s] != 0).toArray();
 
 
-		List<Prediction> predictions = new ArrayList<>();
+			svm_model model = train(superpixels, trainingRows);
 
-		for (Sample sample : testSamples) {
-			int trueLabel = sample.label();
-			double[] features = sample.features();
-			int predictedLabel = predict(model, features);
+			log.info("Evaluating accuracy of SVM classifier with " + testPixels.length + " samples");
+			long startTime = System.nanoTime();
+			int[] predictedLabels = predictBatch(model, superpixels, superpixelIndices);
+			ClassificationResult.Run result = new ClassificationResult.Run(numClasses - 1, false);
+			for (int pixel : testPixels) {
+				result.add(pixel, groundTruth[pixel], predictedLabels[superpixelLabels[pixel]]);
+			}
+			Metrics.timer(Metrics.SVM_PREDICTION).recordSince(startTime);
+			Metrics.counter(Metrics.SVM_PREDICTED_PIXELS).add(testPixels.length);
+			log.info("Accuracy: " + result.getOverallAccuracy() * 100 + "%");
+			return result;
+		});
 
-			// Record true label and prediction
-			Prediction prediction = new Prediction(sample.pixelIndex(), trueLabel, predictedLabel);
-			predictions.add(prediction);
+		String filePath = "confusion_matrix.csv";
+		classificationResult.saveConfusionMatrixToCSV(filePath);
+		log.info("Confusion matrix saved to " + filePath);
+		return classificationResult;
+	}
 
-			if (predictedLabel == trueLabel) {
-				numCorrectPredictions++;
+	/**
+	 * Gets the mean spectrum of every superpixel over the selected bands, blended with the average of its neighbours
+	 * if neighbourhood smoothing is enabled.
+	 *
+	 * @return The features, row-major with one row of selectedBands.size() values per superpixel.
+	 */
+	private double[] superpixelFeatures(SuperpixelContainer superpixelContainer, List<Integer> selectedBands) {
+		int numSuperpixels = superpixelContainer.getNumSuperpixels();
+		int numBands = selectedBands.size();
+		double[] means = new double[numSuperpixels * numBands];
+		for (int b = 0; b < numBands; b++) {
+			double[] bandMeans = superpixelContainer.getSuperpixelMeansArr(selectedBands.get(b));
+			for (int s = 0; s < numSuperpixels; s++) {
+				means[s * numBands + b] = bandMeans[s];
 			}
-			confusionMatrix[trueLabel][predictedLabel]++;
+		}
+		if (smoothingWeight == 0.0) {
+			return means;
 		}
 
-		String filePath = "confusion_matrix.csv";
-		saveConfusionMatrixToCSV(confusionMatrix, filePath);
-		log.info("Confusion matrix saved to " + filePath);
+		int[][] neighbours = superpixelContainer.getNeighbours();
+		double[] smoothed = new double[means.length];
+		for (int s = 0; s < numSuperpixels; s++) {
+			for (int b = 0; b < numBands; b++) {
+				double value = means[s * numBands + b];
+				if (neighbours[s].length > 0) {
+					double neighbourSum = 0.0;
+					for (int n : neighbours[s]) {
+						neighbourSum += means[n * numBands + b];
+					}
+					value = (1 - smoothingWeight) * value + smoothingWeight * neighbourSum / neighbours[s].length;
+				}
+				smoothed[s * numBands + b] = value;
+			}
+		}
+		return smoothed;
+	}
 
-		double accuracy = (double) numCorrectPredictions / testSamples.length;
-		long endTime = System.currentTimeMillis();
-		log.info("Evaluation took " + (endTime - startTime) + " ms");
-		log.info("Accuracy: " + accuracy * 100 + "%");
-		log.info("Number of correct predictions: " + numCorrectPredictions, " out of " + testSamples.length);
-		return predictions;
+	/**
+	 * Labels every superpixel with the most common label among its training pixels, the lowest label on ties.
+	 *
+	 * @return The label of each superpixel, 0 for superpixels without training pixels.
+	 */
+	static int[] majorityLabels(int[] trainingPixels, int[] groundTruth, int[] superpixelLabels, int numSuperpixels, int numClasses) {
+		int[][] labelCounts = new int[numSuperpixels][numClasses];
+		for (int pixel : trainingPixels) {
+			labelCounts[superpixelLabels[pixel]][groundTruth[pixel]]++;
+		}
+		int[] labels = new int[numSuperpixels];
+		for (int s = 0; s < numSuperpixels; s++) {
+			for (int label = 1; label < numClasses; label++) {
+				if (labelCounts[s][label] > labelCounts[s][labels[s]]) {
+					labels[s] = label;
+				}
+			}
+		}
+		return labels;
 	}
 
-	private svm_problem createProblem(Sample[] data) {
-		svm_problem prob = new svm_problem();
 
-		int numFeatures = data[0].features().length;
+	private svm_model train(SampleMatrix samples, int[] trainingRows) {
 
-		prob.l = data.length;
-		prob.x = new svm_node[prob.l][];
-		prob.y = new double[prob.l];
 
-		for (int i = 0; i < prob.l; i++) {
-			prob.y[i] = data[i].label();
+		log.info("Training SVM classifier with " + trainingRows.length + " samples");
+		svm_problem trainingProblem = samples.toProblem(trainingRows);
 
-			prob.x[i] = new svm_node[numFeatures];
+		// Find the best parameters using grid search
+		svm_parameter bestParam = SVMParameterSearch.findBestParameters(trainingProblem);
 
-			for (int j = 0; j < numFeatures; j++) {
-				svm_node node = new svm_node();
-				node.index = j + 1;
-				node.value = data[i].features()[j];
+		long startTime = System.nanoTime();
+		svm_model model = svm.svm_train(trainingProblem, bestParam);
+		long elapsed = Metrics.timer(Metrics.SVM_TRAINING).recordSince(startTime);
+		log.info("Training took " + elapsed / 1_000_000 + " ms, excluding parameter search");
 
-				prob.x[i][j] = node;
-			}
+		return model;
+	}
+
+
+	private static ClassificationResult.Run evaluateAccuracy(svm_model model, SampleMatrix samples, int[] testRows, int numClasses, boolean keepPredictions) {
+		log.info("Evaluating accuracy of SVM classifier with " + testRows.length + " samples");
+		long startTime = System.nanoTime();
+
+		// Using numClasses - 1 because the background class is never predicted
+		ClassificationResult.Run run = new ClassificationResult.Run(numClasses - 1, keepPredictions);
+		int[] predictedLabels = predictBatch(model, samples, testRows);
+
+		for (int i = 0; i < testRows.length; i++) {
+			run.add(samples.getPixelIndex(testRows[i]), samples.getLabel(testRows[i]), predictedLabels[i]);
 		}
+		Metrics.timer(Metrics.SVM_PREDICTION).recordSince(startTime);
+		Metrics.counter(Metrics.SVM_PREDICTED_PIXELS).add(testRows.length);
 
-		return prob;
+		double accuracy = run.getOverallAccuracy();
+		long endTime = System.nanoTime();
+		log.info("Evaluation took " + (endTime - startTime) / 1_000_000 + " ms");
+		log.info("Accuracy: " + accuracy * 100 + "%");
+		log.info("Number of correct predictions: " + run.getNumCorrect(), " out of " + testRows.length);
+		return run;
 	}
 
 
@@ -3,11 +3,13 @@ package no.haavardsjef.classification;
 import libsvm.*;
 import lombok.extern.log4j.Log4j2;
 import no.haavardsjef.dataset.Dataset;
+import no.haavardsjef.metrics.Metrics;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
 
 import static no.haavardsjef.classification.ClassificationUtilities.*;
 
@@ -15,6 +17,9 @@ import static no.haavardsjef.classification.ClassificationUtilities.*;
 public class SVMClassifier implements IClassifier {
 
 	Dataset dataset;
+	private SVMParameterCache parameterCache;
+	private final Random random = new Random();
+	private ClassificationRunExecutor runExecutor;
 
 	public SVMClassifier(Dataset dataset) {
 		this.dataset = dataset;
@@ -30,37 +35,44 @@ public class SVMClassifier implements IClassifier {
 		return evaluate(selectedBands, numClassificationRuns, 0.1);
 	}
 
-	public void justTrain(List<Integer> selectedBands, int numTrainingRuns, double trainingRatio) {
-		// Load features and ground truth
-		int[] groundTruth = dataset.getGroundTruthFlattenedAsArray();
-		double[][] pixelValuesForSelectedBands = dataset.getBandsFlattened(selectedBands).transpose().toDoubleMatrix();
-
-		// Count number of classes
-		int numClasses = Arrays.stream(groundTruth).max().getAsInt() + 1;
+	/**
+	 * Looks up tuned parameters in the cache, and stores newly tuned parameters in it, instead of always searching.
+	 *
+	 * @param parameterCache The cache to use, or null to always search.
+	 */
+	public void setParameterCache(SVMParameterCache parameterCache) {
+		this.parameterCache = parameterCache;
+	}
 
+	/**
+	 * Sets the seed all splits are derived from, making the classification reproducible. The folds of the parameter
+	 * search only depend on the training samples, so they are reproducible as well.
+	 */
+	public void setSeed(long seed) {
+		this.random.setSeed(seed);
+	}
 
-		// Verify that the number of ground truths matches the number of pixels
-		if (pixelValuesForSelectedBands.length != groundTruth.length) {
-			throw new RuntimeException("The number of ground truths does not match the number of pixels");
-		}
+	/**
+	 * @param runExecutor The executor for the classification runs, or null to fit as many concurrent runs as the heap allows.
+	 */
+	public void setRunExecutor(ClassificationRunExecutor runExecutor) {
+		this.runExecutor = runExecutor;
+	}
 
-		// Create samples
-		Sample[] samples = new Sample[groundTruth.length];
-		for (int i = 0; i < pixelValuesForSelectedBands.length; i++) {
-			samples[i] = new Sample(i, groundTruth[i], pixelValuesForSelectedBands[i]);
-		}
+	public void justTrain(List<Integer> selectedBands, int numTrainingRuns, double trainingRatio) {
+		// Load features and ground truth
+		SampleMatrix samples = loadSamples(selectedBands);
 
 		// Run training runs
 		for (int i = 0; i < numTrainingRuns; i++) {
 
 
 			// Shuffle and split into training and test set
-			Sample[][] split = splitSamples(samples, trainingRatio);
-			Sample[] trainingSamples = split[0];
-			Sample[] testSamples = split[1];
+			int[][] split = samples.stratifiedSplit(trainingRatio, random);
+			int[] trainingRows = split[0];
 
 
-			svm_model model = trainWithoutGridSearch(trainingSamples);
+			svm_model model = trainWithoutGridSearch(samples, trainingRows);
 		}
 
 	}
@@ -70,48 +82,33 @@ public class SVMClassifier implements IClassifier {
 
 
 		// Load features and ground truth
-		int[] groundTruth = dataset.getGroundTruthFlattenedAsArray();
-		double[][] pixelValuesForSelectedBands = dataset.getBandsFlattened(selectedBands).transpose().toDoubleMatrix();
+		SampleMatrix samples = loadSamples(selectedBands);
 
 		// Count number of classes
-		int numClasses = Arrays.stream(groundTruth).max().getAsInt() + 1;
+		int numClasses = Arrays.stream(dataset.getGroundTruthFlattenedAsArray()).max().getAsInt() + 1;
 
 
-		// Verify that the number of ground truths matches the number of pixels
-		if (pixelValuesForSelectedBands.length != groundTruth.length) {
-			throw new RuntimeException("The number of ground truths does not match the number of pixels");
-		}
-
-		// Create samples
-		Sample[] samples = new Sample[groundTruth.length];
-		for (int i = 0; i < pixelValuesForSelectedBands.length; i++) {
-			samples[i] = new Sample(i, groundTruth[i], pixelValuesForSelectedBands[i]);
-		}
-
-
-		// Create classification result
+		// Run the independent classification runs concurrently, each with its own shuffle of the samples
 		// Using numClasses - 1 because the background class is not included in the classification result
-		ClassificationResult classificationResult = new ClassificationResult(numClasses - 1);
-
-
-		// Run classification runs
-		for (int i = 0; i < numClassificationRuns; i++) {
+		int numTestSamples = (int) (samples.size() * (1 - trainingRatio));
+		ClassificationRunExecutor executor = runExecutor != null ? runExecutor : ClassificationRunExecutor.withDefaultMemoryBudget(numTestSamples);
+		ClassificationResult classificationResult = executor.execute(numClassificationRuns, random.nextLong(), numClasses - 1, (run, runRandom) -> {
 
 
 			// Shuffle and split into training and test set
-			Sample[][] split = splitSamples(samples, trainingRatio);
-			Sample[] trainingSamples = split[0];
-			Sample[] testSamples = split[1];
-
+			int[][] split = samples.stratifiedSplit(trainingRatio, runRandom);
+			int[] trainingRows = split[0];
+			int[] testRows = split[1];
 
-			svm_model model = train(trainingSamples);
 
-			List<Prediction> predictions = evaluateAccuracy(model, testSamples, numClasses);
-			classificationResult.addRun(predictions);
-
-		}
+			svm_model model = train(samples, trainingRows, selectedBands, trainingRatio);
 
+			return evaluateAccuracy(model, samples, testRows, numClasses, false);
+		});
 
+		String filePath = "confusion_matrix.csv";
+		classificationResult.saveConfusionMatrixToCSV(filePath);
+		log.info("Confusion matrix saved to " + filePath);
 		return classificationResult;
 
 	}
@@ -124,87 +121,82 @@ public class SVMClassifier implements IClassifier {
 	 * @param trainingRatio
 	 */
 	public int[][] compareBandSubsets(List<Integer> selectedBands1, List<Integer> selectedBands2, double trainingRatio, boolean useGridSearch) {
-		log.info("Comparing band subsets with selected bands: " + selectedBands1 + " and " + selectedBands2);
+		return compareBandSubsets(List.of(selectedBands1, selectedBands2), trainingRatio, useGridSearch).getContingencyTable(0, 1);
+	}
 
+	/**
+	 * Trains one model per band subset, all on the same training samples, and predicts the same test samples with each,
+	 * so that every pair of subsets can be compared with McNemar's test without retraining.
+	 *
+	 * @param bandSubsets   The band subsets to compare.
+	 * @param trainingRatio The ratio of labelled samples used for training.
+	 * @param useGridSearch Whether to search for the SVM parameters of each model.
+	 * @return The aligned predictions of all models, indexed in the order of the band subsets.
+	 */
+	public PairedComparison compareBandSubsets(List<List<Integer>> bandSubsets, double trainingRatio, boolean useGridSearch) {
+		log.info("Comparing " + bandSubsets.size() + " band subsets: " + bandSubsets);
 
 		// Load features and ground truth
-		int[] groundTruth = dataset.getGroundTruthFlattenedAsArray();
-		double[][] pixelValuesForSelectedBands1 = dataset.getBandsFlattened(selectedBands1).transpose().toDoubleMatrix();
-		double[][] pixelValuesForSelectedBands2 = dataset.getBandsFlattened(selectedBands2).transpose().toDoubleMatrix();
-
-		// Count number of classes
-		int numClasses = Arrays.stream(groundTruth).max().getAsInt() + 1;
-
-		// Create samples
-		Sample[] samples1 = new Sample[groundTruth.length];
-		Sample[] samples2 = new Sample[groundTruth.length];
-		for (int i = 0; i < pixelValuesForSelectedBands1.length; i++) {
-			samples1[i] = new Sample(i, groundTruth[i], pixelValuesForSelectedBands1[i]);
-			samples2[i] = new Sample(i, groundTruth[i], pixelValuesForSelectedBands2[i]);
+		// All matrices contain the labelled pixels in the same order, so one split applies to all of them
+		SampleMatrix[] samples = new SampleMatrix[bandSubsets.size()];
+		for (int m = 0; m < samples.length; m++) {
+			samples[m] = loadSamples(bandSubsets.get(m));
 		}
 
-
-		// Create classification result
-		// Using numClasses - 1 because the background class is not included in the classification result
-		ClassificationResult classificationResult1 = new ClassificationResult(numClasses - 1);
-		ClassificationResult classificationResult2 = new ClassificationResult(numClasses - 1);
-
-
 		// Shuffle and split into training and test set, collectively
-		Sample[][][] split = splitSamplesForComparison(samples1, samples2, trainingRatio);
-
-		Sample[] trainingSamples1 = split[0][0];
-		Sample[] testSamples1 = split[0][1];
-		Sample[] trainingSamples2 = split[1][0];
-		Sample[] testSamples2 = split[1][1];
-
-
-		svm_model model1 = null;
-		svm_model model2 = null;
+		int[][] split = samples[0].stratifiedSplit(trainingRatio, random);
+		int[] trainingRows = split[0];
+		int[] testRows = split[1];
+
+		// The models are independent, so they are trained and evaluated in parallel
+		int[][] predictedLabels = new int[samples.length][];
+		IntStream.range(0, samples.length).parallel().forEach(m -> {
+			svm_model model = useGridSearch
+					? train(samples[m], trainingRows, bandSubsets.get(m), trainingRatio)
+					: trainWithoutGridSearch(samples[m], trainingRows);
+			long startTime = System.nanoTime();
+			predictedLabels[m] = predictBatch(model, samples[m], testRows);
+			Metrics.timer(Metrics.SVM_PREDICTION).recordSince(startTime);
+			Metrics.counter(Metrics.SVM_PREDICTED_PIXELS).add(testRows.length);
+		});
 
-		if (useGridSearch) {
-			model1 = train(trainingSamples1);
-			model2 = train(trainingSamples2);
-		} else {
-			model1 = trainWithoutGridSearch(trainingSamples1);
-			model2 = trainWithoutGridSearch(trainingSamples2);
+		int[] pixelIndices = new int[testRows.length];
+		int[] trueLabels = new int[testRows.length];
+		for (int i = 0; i < testRows.length; i++) {
+			pixelIndices[i] = samples[0].getPixelIndex(testRows[i]);
+			trueLabels[i] = samples[0].getLabel(testRows[i]);
 		}
-		List<Prediction> predictions1 = evaluateAccuracy(model1, testSamples1, numClasses);
-		List<Prediction> predictions2 = evaluateAccuracy(model2, testSamples2, numClasses);
-		classificationResult1.addRun(predictions1);
-		classificationResult2.addRun(predictions2);
-
-		// Generate contingency table
-		int[][] contingencyTable = constructContingencyTable(predictions1, predictions2);
-
-		return contingencyTable;
-
-
+		return new PairedComparison(pixelIndices, trueLabels, predictedLabels);
 	}
 
 
-	private svm_model train(Sample[] data) {
+	private svm_model train(SampleMatrix samples, int[] trainingRows, List<Integer> selectedBands, double trainingRatio) {
 
 
-		log.info("Training SVM classifier with " + data.length + " samples");
-		svm_problem trainingProblem = createProblem(data);
+		log.info("Training SVM classifier with " + trainingRows.length + " samples");
+		svm_problem trainingProblem = samples.toProblem(trainingRows);
 
-		// Find the best parameters using grid search
-		svm_parameter bestParam = SVMParameterSearch.findBestParameters(trainingProblem);
+		// Find the best parameters using grid search, or reuse them if the band subset was tuned before
+		svm_parameter bestParam;
+		if (parameterCache != null && dataset.getCubeName() != null) {
+			bestParam = parameterCache.getParameters(dataset.getCubeName(), dataset.getNumBands(), selectedBands, trainingRatio, trainingProblem);
+		} else {
+			bestParam = SVMParameterSearch.findBestParameters(trainingProblem);
+		}
 
-		long startTime = System.currentTimeMillis();
+		long startTime = System.nanoTime();
 		svm_model model = svm.svm_train(trainingProblem, bestParam);
-		long endTime = System.currentTimeMillis();
-		log.info("Training took " + (endTime - startTime) + " ms, excluding parameter search");
+		long elapsed = Metrics.timer(Metrics.SVM_TRAINING).recordSince(startTime);
+		log.info("Training took " + elapsed / 1_000_000 + " ms, excluding parameter search");
 
 		return model;
 	}
 
-	private svm_model trainWithoutGridSearch(Sample[] data) {
+	private svm_model trainWithoutGridSearch(SampleMatrix samples, int[] trainingRows) {
 
 
-		log.info("Training SVM classifier w.o. grid search with " + data.length + " samples");
-		svm_problem trainingProblem = createProblem(data);
+		log.info("Training SVM classifier w.o. grid search with " + trainingRows.length + " samples");
+		svm_problem trainingProblem = samples.toProblem(trainingRows);
 
 		// Find the best parameters using grid search
 		svm_parameter param = new svm_parameter();
@@ -216,88 +208,45 @@ public class SVMClassifier implements IClassifier {
 		param.cache_size = 100;
 
 
-		long startTime = System.currentTimeMillis();
+		long startTime = System.nanoTime();
 		svm_model model = svm.svm_train(trainingProblem, param);
-		long endTime = System.currentTimeMillis();
-		log.info("Training took " + (endTime - startTime) + " ms");
+		long elapsed = Metrics.timer(Metrics.SVM_TRAINING).recordSince(startTime);
+		log.info("Training took " + elapsed / 1_000_000 + " ms");
 
 		return model;
 	}
 
 
-	private static int predict(svm_model model, double[] features) {
-		svm_node[] nodes = new svm_node[features.length];
-		for (int i = 0; i < features.length; i++) {
-			nodes[i] = new svm_node();
-			nodes[i].index = i + 1;
-			nodes[i].value = features[i];
-		}
-
-		double prediction = svm.svm_predict(model, nodes);
-		return (int) prediction;
-	}
-
-	private static List<Prediction> evaluateAccuracy(svm_model model, Sample[] testSamples, int numClasses) {
-		log.info("Evaluating accuracy of SVM classifier with " + testSamples.length + " samples");
-		long startTime = System.currentTimeMillis();
-		int numCorrectPredictions = 0;
-		int[][] confusionMatrix = new int[numClasses][numClasses];
+	private static ClassificationResult.Run evaluateAccuracy(svm_model model, SampleMatrix samples, int[] testRows, int numClasses, boolean keepPredictions) {
+		log.info("Evaluating accuracy of SVM classifier with " + testRows.length + " samples");
+		long startTime = System.nanoTime();
 
+		// Using numClasses - 1 because the background class is never predicted
+		ClassificationResult.Run run = new ClassificationResult.Run(numClasses - 1, keepPredictions);
+		int[] predictedLabels = predictBatch(model, samples, testRows);
 
-		List<Prediction> predictions = new ArrayList<>();
-
-		for (Sample sample : testSamples) {
-			int trueLabel = sample.label();
-			double[] features = sample.features();
-			int predictedLabel = predict(model, features);
-
-			// Record true label and prediction
-			Prediction prediction = new Prediction(sample.pixelIndex(), trueLabel, predictedLabel);
-			predictions.add(prediction);
-
-			if (predictedLabel == trueLabel) {
-				numCorrectPredictions++;
-			}
-			confusionMatrix[trueLabel][predictedLabel]++;
+		for (int i = 0; i < testRows.length; i++) {
+			run.add(samples.getPixelIndex(testRows[i]), samples.getLabel(testRows[i]), predictedLabels[i]);
 		}
+		Metrics.timer(Metrics.SVM_PREDICTION).recordSince(startTime);
+		Metrics.counter(Metrics.SVM_PREDICTED_PIXELS).add(testRows.length);
 
-		String filePath = "confusion_matrix.csv";
-		saveConfusionMatrixToCSV(confusionMatrix, filePath);
-		log.info("Confusion matrix saved to " + filePath);
-
-		double accuracy = (double) numCorrectPredictions / testSamples.length;
-		long endTime = System.currentTimeMillis();
-		log.info("Evaluation took " + (endTime - startTime) + " ms");
+		double accuracy = run.getOverallAccuracy();
+		long endTime = System.nanoTime();
+		log.info("Evaluation took " + (endTime - startTime) / 1_000_000 + " ms");
 		log.info("Accuracy: " + accuracy * 100 + "%");
-		log.info("Number of correct predictions: " + numCorrectPredictions, " out of " + testSamples.length);
-		return predictions;
+		log.info("Number of correct predictions: " + run.getNumCorrect(), " out of " + testRows.length);
+		return run;
 	}
 
-	private svm_problem createProblem(Sample[] data) {
-		svm_problem prob = new svm_problem();
-
-		int numFeatures = data[0].features().length;
-
-		prob.l = data.length;
-		prob.x = new svm_node[prob.l][];
-		prob.y = new double[prob.l];
-
-		for (int i = 0; i < prob.l; i++) {
-			prob.y[i] = data[i].label();
-
-			prob.x[i] = new svm_node[numFeatures];
-
-			for (int j = 0; j < numFeatures; j++) {
-				svm_node node = new svm_node();
-				node.index = j + 1;
-				node.value = data[i].features()[j];
-
-				prob.x[i][j] = node;
-			}
-		}
-
-		return prob;
+	/**
+	 * Loads the labelled pixels with the selected bands as features, normalized to [0, 1] over all labelled pixels.
+	 */
+	private SampleMatrix loadSamples(List<Integer> selectedBands) {
+		int[] groundTruth = dataset.getGroundTruthFlattenedAsArray();
+		double[] pixelFeatures = dataset.getFeatureMatrix(selectedBands);
+		SampleMatrix samples = SampleMatrix.fromLabelledPixels(pixelFeatures, selectedBands.size(), groundTruth);
+		samples.normalize();
+		return samples;
 	}
-
-
 }
@@ -0,0 +1,131 @@
+package no.haavardsjef.classification;
+
+import libsvm.svm_parameter;
+import libsvm.svm_problem;
+import lombok.extern.log4j.Log4j2;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * Persistent cache of tuned SVM parameters, so that a band subset that was already tuned in an earlier run or experiment
+ * does not have to go through the parameter search again. Entries are keyed on the cube and its number of bands, as the
+ * same band index refers to different wavelengths in the corrected and uncorrected cube of a dataset, the sorted selected
+ * bands, the training ratio and the grid definition, and stored as tab separated lines in a file.
+ */
+@Log4j2
+public class SVMParameterCache {
+
+	public enum ReusePolicy {
+		/**
+		 * Always run the parameter search, as before. Results are still stored in the cache.
+		 */
+		ALWAYS_TUNE,
+		/**
+		 * Run the parameter search once per band subset, and reuse the cached result for all subsequent runs.
+		 */
+		TUNE_ONCE
+	}
+
+	private record Entry(double gamma, double C, double accuracy) {
+	}
+
+	private final Path path;
+	private final ReusePolicy reusePolicy;
+	private final Map<String, Entry> entries = new LinkedHashMap<>();
+	private final Map<String, Object> searchLocks = new ConcurrentHashMap<>();
+
+	/**
+	 * @param path        The file to persist the cache to, loaded if it exists.
+	 * @param reusePolicy When to reuse cached parameters instead of searching.
+	 */
+	public SVMParameterCache(Path path, ReusePolicy reusePolicy) throws IOException {
+		this.path = path;
+		this.reusePolicy = reusePolicy;
+		if (Files.exists(path)) {
+			for (String line : Files.readAllLines(path)) {
+				String[] fields = line.split("\t");
+				if (fields.length != 4) {
+					log.warn("Skipping malformed line in {}: {}", path, line);
+					continue;
+				}
+				entries.put(fields[0], new Entry(Double.parseDouble(fields[1]), Double.parseDouble(fields[2]), Double.parseDouble(fields[3])));
+			}
+			log.info("Loaded {} tuned SVM parameters from {}", entries.size(), path);
+		}
+	}
+
+	/**
+	 * Gets the parameters for the problem, from the cache if the reuse policy allows it, otherwise by running the parameter search.
+	 *
+	 * @param cubeName      The name of the cube the samples are from, see {@link no.haavardsjef.dataset.Dataset#getCubeName()}.
+	 * @param numBands      The number of bands in the cube.
+	 * @param selectedBands The bands used as features, in any order.
+	 * @param trainingRatio The ratio of labelled samples used for training.
+	 * @param problem       The training problem, only used if the parameters have to be searched for.
+	 * @return The best parameters.
+	 */
+	public svm_parameter getParameters(String cubeName, int numBands, List<Integer> selectedBands, double trainingRatio, svm_problem problem) {
+		SVMParameterSearch.Strategy strategy = SVMParameterSearch.getStrategy();
+		String key = key(cubeName, numBands, selectedBands, trainingRatio, SVMParameterSearch.getGridDefinition(strategy));
+
+		if (reusePolicy == ReusePolicy.ALWAYS_TUNE) {
+			return search(key, strategy, problem);
+		}
+
+		// Concurrent classification runs of the same band subset wait for the first search instead of repeating it
+		synchronized (searchLocks.computeIfAbsent(key, k -> new Object())) {
+			Entry cached;
+			synchronized (this) {
+				cached = entries.get(key);
+			}
+			if (cached != null) {
+				log.info("Reusing tuned parameters gamma = {}, C = {} (CV accuracy {})", cached.gamma(), cached.C(), cached.accuracy());
+				return SVMParameterSearch.createParameter(cached.gamma(), cached.C());
+			}
+			return search(key, strategy, problem);
+		}
+	}
+
+	private svm_parameter search(String key, SVMParameterSearch.Strategy strategy, svm_problem problem) {
+		SVMParameterSearch.ParameterAccuracy best = SVMParameterSearch.search(problem, strategy);
+		put(key, new Entry(best.gamma(), best.C(), best.accuracy()));
+		return SVMParameterSearch.createParameter(best.gamma(), best.C());
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	static String key(String cubeName, int numBands, List<Integer> selectedBands, double trainingRatio, String gridDefinition) {
+		List<Integer> sortedBands = new ArrayList<>(selectedBands);
+		Collections.sort(sortedBands);
+		String bands = sortedBands.stream().map(String::valueOf).collect(Collectors.joining(" "));
+		return cubeName + "|" + numBands + "|" + bands + "|" + trainingRatio + "|" + gridDefinition;
+	}
+
+	/**
+	 * Adds the entry and rewrites the file. Written to a temporary file first, so an interrupted write never corrupts the cache.
+	 */
+	private synchronized void put(String key, Entry entry) {
+		entries.put(key, entry);
+		StringBuilder sb = new StringBuilder();
+		entries.forEach((k, e) -> sb.append(k).append('\t').append(e.gamma()).append('\t').append(e.C()).append('\t').append(e.accuracy()).append('\n'));
+		Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		try {
+			Files.writeString(tempPath, sb.toString());
+			Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.warn("Could not persist SVM parameter cache to {}: {}", path, e.getMessage());
+		}
+	}
+}
@@ -2,11 +2,20 @@ package no.haavardsjef.classification;
 
 import libsvm.*;
 import lombok.extern.log4j.Log4j2;
+import no.haavardsjef.metrics.Metrics;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 @Log4j2
 public class SVMParameterSearch {
@@ -15,71 +24,249 @@ public class SVMParameterSearch {
 	private static final double[] C_RANGE = {0.1, 1, 10, 100, 1000};
 	private static final int K_FOLDS = 5;
 
-	private record ParameterAccuracy(double gamma, double C, double accuracy) {
+	// Successive halving: keep the best 1/ETA of the candidates in each rung, on ETA times as many samples
+	private static final int ETA = 3;
+	private static final int MIN_RUNG_SAMPLES = 200;
+	private static final long SUBSAMPLE_SEED = 42L;
+	// Folds are drawn from a fixed seed rather than libsvm's static svm.rand, which concurrent searches share
+	private static final long FOLD_SEED = 43L;
+
+	public enum Strategy {
+		/**
+		 * Cross-validates every parameter pair on all samples.
+		 */
+		GRID,
+		/**
+		 * Cross-validates every parameter pair on a small subsample, and only promotes the best to larger subsamples.
+		 */
+		SUCCESSIVE_HALVING
+	}
+
+	private static volatile Strategy strategy = Strategy.GRID;
+
+	// Bounded pool, so that nested parallelism does not oversubscribe the cores. Daemon threads do not keep the JVM alive.
+	private static final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+		Thread thread = new Thread(runnable, "svm-parameter-search");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		svm.svm_set_print_string_function(new svm_print_interface() {
+			@Override
+			public void print(String s) {
+				// Do nothing, effectively muting the libsvm output
+			}
+		});
 	}
 
-	;
+	record ParameterAccuracy(double gamma, double C, double accuracy) {
+	}
+
+	/**
+	 * Sets the strategy used by all subsequent searches.
+	 */
+	public static void setStrategy(Strategy strategy) {
+		SVMParameterSearch.strategy = strategy;
+	}
 
+	public static Strategy getStrategy() {
+		return strategy;
+	}
 
 	public static svm_parameter findBestParameters(svm_problem problem) {
-		long startTime = System.currentTimeMillis();
-		log.info("Performing grid search with {} samples and {} folds", problem.l, K_FOLDS);
+		return findBestParameters(problem, strategy);
+	}
 
-		List<ParameterAccuracy> parameterAccuracies = new ArrayList<>();
+	public static svm_parameter findBestParameters(svm_problem problem, Strategy strategy) {
+		ParameterAccuracy best = search(problem, strategy);
+		return createParameter(best.gamma(), best.C());
+	}
 
+	/**
+	 * Describes the searched grid and strategy, two searches with the same definition give the same result for the same problem.
+	 */
+	public static String getGridDefinition(Strategy strategy) {
+		return strategy + ";gamma=" + Arrays.toString(GAMMA_RANGE) + ";C=" + Arrays.toString(C_RANGE) + ";folds=" + K_FOLDS;
+	}
 
-		AtomicReference<Double> bestGamma = new AtomicReference<>((double) 0);
-		AtomicReference<Double> bestC = new AtomicReference<>((double) 0);
+	/**
+	 * @return The best parameters and their cross-validation accuracy.
+	 */
+	static ParameterAccuracy search(svm_problem problem, Strategy strategy) {
+		long startTime = System.nanoTime();
+		log.info("Performing {} search with {} samples and {} folds", strategy, problem.l, K_FOLDS);
 
-		Arrays.stream(GAMMA_RANGE).parallel().forEach(gamma -> {
-			Arrays.stream(C_RANGE).parallel().forEach(C -> {
-				svm_parameter param = new svm_parameter();
-				param.svm_type = svm_parameter.C_SVC;
-				param.kernel_type = svm_parameter.RBF;
-				param.gamma = gamma;
-				param.C = C;
-				param.eps = 0.001;
-				param.cache_size = 100;
+		List<ParameterAccuracy> candidates = new ArrayList<>();
+		for (double gamma : GAMMA_RANGE) {
+			for (double C : C_RANGE) {
+				candidates.add(new ParameterAccuracy(gamma, C, 0));
+			}
+		}
 
-				double accuracy = performCrossValidation(problem, param, K_FOLDS);
-				parameterAccuracies.add(new ParameterAccuracy(gamma, C, accuracy));
-			});
-		});
+		ParameterAccuracy best = switch (strategy) {
+			case GRID -> best(crossValidateAll(problem, candidates));
+			case SUCCESSIVE_HALVING -> successiveHalving(problem, candidates);
+		};
 
-		parameterAccuracies.stream().max((p1, p2) -> Double.compare(p1.accuracy(), p2.accuracy())).ifPresent(parameterAccuracy -> {
-			bestGamma.set(parameterAccuracy.gamma());
-			bestC.set(parameterAccuracy.C());
-		});
+		long elapsed = Metrics.timer(Metrics.SVM_GRID_SEARCH).recordSince(startTime);
+		log.info("Grid search took " + elapsed / 1_000_000 + " ms, best parameters: gamma = " + best.gamma() + ", C = " + best.C());
+
+		return best;
+	}
+
+	/**
+	 * Scores all candidates on nested, growing subsamples of the problem. After each rung only the best 1/ETA of the
+	 * candidates are kept, and the last rung uses all samples.
+	 */
+	private static ParameterAccuracy successiveHalving(svm_problem problem, List<ParameterAccuracy> candidates) {
+		int numRungs = 1;
+		for (int n = candidates.size(); n > ETA; n = (n + ETA - 1) / ETA) {
+			numRungs++;
+		}
+
+		// The same permutation is used for all rungs, so every subsample contains the previous one
+		int[] permutation = permutation(problem.l, new Random(SUBSAMPLE_SEED));
+
+		for (int rung = 0; rung < numRungs; rung++) {
+			int numSamples = (int) Math.min(problem.l, Math.max(MIN_RUNG_SAMPLES, problem.l / Math.pow(ETA, numRungs - 1 - rung)));
+			svm_problem subproblem = numSamples == problem.l ? problem : subsample(problem, permutation, numSamples);
 
-		svm_parameter bestParam = new svm_parameter();
-		bestParam.svm_type = svm_parameter.C_SVC;
-		bestParam.kernel_type = svm_parameter.RBF;
-		bestParam.gamma = bestGamma.get();
-		bestParam.C = bestC.get();
-		bestParam.eps = 0.001;
-		bestParam.cache_size = 100;
+			List<ParameterAccuracy> scored = crossValidateAll(subproblem, candidates);
+			log.debug("Rung {}: {} candidates on {} samples", rung, scored.size(), numSamples);
+			if (rung == numRungs - 1 || numSamples == problem.l) {
+				return best(scored);
+			}
 
-		long endTime = System.currentTimeMillis();
-		log.info("Grid search took " + (endTime - startTime) + " ms, best parameters: gamma = " + bestGamma.get() + ", C = " + bestC.get());
+			int numPromoted = (scored.size() + ETA - 1) / ETA;
+			candidates = scored.stream()
+					.sorted(Comparator.comparingDouble(ParameterAccuracy::accuracy).reversed())
+					.limit(numPromoted)
+					.toList();
+		}
+		throw new IllegalStateException("Successive halving ended without a result");
+	}
 
-		return bestParam;
+	/**
+	 * Cross-validates the candidates on the worker pool.
+	 *
+	 * @return The candidates with their accuracy, in the same order as the given candidates.
+	 */
+	private static List<ParameterAccuracy> crossValidateAll(svm_problem problem, List<ParameterAccuracy> candidates) {
+		// All candidates are scored on the same folds
+		int[] folds = stratifiedFolds(problem, K_FOLDS);
+		List<Callable<ParameterAccuracy>> tasks = new ArrayList<>(candidates.size());
+		for (ParameterAccuracy candidate : candidates) {
+			tasks.add(() -> new ParameterAccuracy(candidate.gamma(), candidate.C(),
+					performCrossValidation(problem, createParameter(candidate.gamma(), candidate.C()), folds, K_FOLDS)));
+		}
+
+		List<ParameterAccuracy> results = new ArrayList<>(candidates.size());
+		try {
+			for (Future<ParameterAccuracy> future : executor.invokeAll(tasks)) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted during parameter search", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Cross-validation failed", e.getCause());
+		}
+		return results;
 	}
 
-	private static double performCrossValidation(svm_problem problem, svm_parameter param, int kFolds) {
-		svm.svm_set_print_string_function(new svm_print_interface() {
-			@Override
-			public void print(String s) {
-				// Do nothing, effectively muting the libsvm output
+	/**
+	 * @return The most accurate candidate, the first one in case of ties.
+	 */
+	private static ParameterAccuracy best(List<ParameterAccuracy> scored) {
+		ParameterAccuracy best = scored.get(0);
+		for (ParameterAccuracy candidate : scored) {
+			if (candidate.accuracy() > best.accuracy()) {
+				best = candidate;
 			}
-		});
+		}
+		return best;
+	}
 
-		double[] target = new double[problem.l];
-		svm.svm_cross_validation(problem, param, kFolds, target);
+	static svm_parameter createParameter(double gamma, double C) {
+		svm_parameter param = new svm_parameter();
+		param.svm_type = svm_parameter.C_SVC;
+		param.kernel_type = svm_parameter.RBF;
+		param.gamma = gamma;
+		param.C = C;
+		param.eps = 0.001;
+		param.cache_size = 100;
+		return param;
+	}
+
+	private static int[] permutation(int size, Random random) {
+		int[] permutation = new int[size];
+		for (int i = 0; i < size; i++) {
+			permutation[i] = i;
+		}
+		for (int i = size - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int tmp = permutation[i];
+			permutation[i] = permutation[j];
+			permutation[j] = tmp;
+		}
+		return permutation;
+	}
+
+	private static svm_problem subsample(svm_problem problem, int[] permutation, int numSamples) {
+		svm_problem subproblem = new svm_problem();
+		subproblem.l = numSamples;
+		subproblem.x = new svm_node[numSamples][];
+		subproblem.y = new double[numSamples];
+		for (int i = 0; i < numSamples; i++) {
+			subproblem.x[i] = problem.x[permutation[i]];
+			subproblem.y[i] = problem.y[permutation[i]];
+		}
+		return subproblem;
+	}
+
+	/**
+	 * Assigns every sample to one of kFolds folds, dealing the samples of each class round-robin in the order of a
+	 * permutation drawn from a fixed seed, so the folds only depend on the problem.
+	 *
+	 * @return The fold of each sample.
+	 */
+	static int[] stratifiedFolds(svm_problem problem, int kFolds) {
+		int[] permutation = permutation(problem.l, new Random(FOLD_SEED));
+		Map<Double, Integer> classCounts = new HashMap<>();
+		int[] folds = new int[problem.l];
+		for (int i : permutation) {
+			int count = classCounts.merge(problem.y[i], 1, Integer::sum) - 1;
+			folds[i] = count % kFolds;
+		}
+		return folds;
+	}
 
+	private static double performCrossValidation(svm_problem problem, svm_parameter param, int[] folds, int kFolds) {
 		int correct = 0;
-		for (int i = 0; i < problem.l; i++) {
-			if (target[i] == problem.y[i]) {
-				correct++;
+		for (int fold = 0; fold < kFolds; fold++) {
+			int numTraining = 0;
+			for (int f : folds) {
+				if (f != fold) {
+					numTraining++;
+				}
+			}
+			svm_problem training = new svm_problem();
+			training.l = numTraining;
+			training.x = new svm_node[numTraining][];
+			training.y = new double[numTraining];
+			for (int i = 0, j = 0; i < problem.l; i++) {
+				if (folds[i] != fold) {
+					training.x[j] = problem.x[i];
+					training.y[j++] = problem.y[i];
+				}
+			}
+
+			svm_model model = svm.svm_train(training, param);
+			for (int i = 0; i < problem.l; i++) {
+				if (folds[i] == fold && svm.svm_predict(model, problem.x[i]) == problem.y[i]) {
+					correct++;
+				}
 			}
 		}
 
@@ -0,0 +1,246 @@
+package no.haavardsjef.classification;
+
+import libsvm.svm_node;
+import libsvm.svm_problem;
+import lombok.extern.log4j.Log4j2;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Labelled samples stored column-wise in primitive arrays: the features of all samples in one contiguous row-major
+ * array, and the label and pixel index of each sample in separate arrays.
+ */
+@Log4j2
+public class SampleMatrix {
+
+	private final int numSamples;
+	private final int numFeatures;
+	private final double[] features; // shape: [numSamples * numFeatures], row-major
+	private final int[] labels;
+	private final int[] pixelIndices;
+	private svm_node[][] nodes; // Built on first use by toProblem
+
+	/**
+	 * @param features     The features, row-major with numFeatures values per sample. Not copied.
+	 * @param labels       The label of each sample.
+	 * @param pixelIndices The pixel index of each sample.
+	 * @param numFeatures  The number of features per sample.
+	 */
+	public SampleMatrix(double[] features, int[] labels, int[] pixelIndices, int numFeatures) {
+		if (features.length != labels.length * numFeatures || labels.length != pixelIndices.length) {
+			throw new IllegalArgumentException("Expected " + labels.length + " samples with " + numFeatures + " features, got " + features.length + " values");
+		}
+		this.numSamples = labels.length;
+		this.numFeatures = numFeatures;
+		this.features = features;
+		this.labels = labels;
+		this.pixelIndices = pixelIndices;
+	}
+
+	/**
+	 * Creates a matrix of the labelled pixels, skipping the unlabelled ones (label 0).
+	 *
+	 * @param pixelFeatures The features of every pixel, row-major with numFeatures values per pixel.
+	 * @param numFeatures   The number of features per pixel.
+	 * @param groundTruth   The label of every pixel.
+	 */
+	public static SampleMatrix fromLabelledPixels(double[] pixelFeatures, int numFeatures, int[] groundTruth) {
+		if (pixelFeatures.length != groundTruth.length * numFeatures) {
+			throw new IllegalArgumentException("The number of ground truths does not match the number of pixels");
+		}
+		int numLabelled = 0;
+		for (int label : groundTruth) {
+			if (label != 0) {
+				numLabelled++;
+			}
+		}
+
+		double[] features = new double[numLabelled * numFeatures];
+		int[] labels = new int[numLabelled];
+		int[] pixelIndices = new int[numLabelled];
+		int row = 0;
+		for (int pixel = 0; pixel < groundTruth.length; pixel++) {
+			if (groundTruth[pixel] != 0) {
+				System.arraycopy(pixelFeatures, pixel * numFeatures, features, row * numFeatures, numFeatures);
+				labels[row] = groundTruth[pixel];
+				pixelIndices[row] = pixel;
+				row++;
+			}
+		}
+		return new SampleMatrix(features, labels, pixelIndices, numFeatures);
+	}
+
+	/**
+	 * Min-max normalizes every feature to [0, 1] in place. Features that are constant are set to 0.
+	 */
+	public synchronized void normalize() {
+		nodes = null;
+		normalize(features, numFeatures);
+	}
+
+	/**
+	 * Min-max normalizes every feature of a row-major feature array to [0, 1] in place. Features that are constant are set to 0.
+	 *
+	 * @param features    The features, row-major with numFeatures values per sample.
+	 * @param numFeatures The number of features per sample.
+	 */
+	public static void normalize(double[] features, int numFeatures) {
+		if (numFeatures == 0) {
+			return;
+		}
+		int numSamples = features.length / numFeatures;
+		double[] featureMin = new double[numFeatures];
+		double[] featureMax = new double[numFeatures];
+		Arrays.fill(featureMin, Double.POSITIVE_INFINITY);
+		Arrays.fill(featureMax, Double.NEGATIVE_INFINITY);
+		for (int i = 0; i < numSamples; i++) {
+			int offset = i * numFeatures;
+			for (int f = 0; f < numFeatures; f++) {
+				double value = features[offset + f];
+				featureMin[f] = Math.min(featureMin[f], value);
+				featureMax[f] = Math.max(featureMax[f], value);
+			}
+		}
+
+		double[] scale = new double[numFeatures];
+		for (int f = 0; f < numFeatures; f++) {
+			double range = featureMax[f] - featureMin[f];
+			scale[f] = range > 0 ? 1.0 / range : 0.0;
+		}
+		for (int i = 0; i < numSamples; i++) {
+			int offset = i * numFeatures;
+			for (int f = 0; f < numFeatures; f++) {
+				features[offset + f] = (features[offset + f] - featureMin[f]) * scale[f];
+			}
+		}
+	}
+
+	/**
+	 * Splits the samples into a training and a test set, stratified by label. The samples of each label are shuffled,
+	 * and the first ceil(count * trainingRatio) of them are used for training.
+	 *
+	 * @return The rows of the training samples and the rows of the test samples, grouped by label.
+	 */
+	public int[][] stratifiedSplit(double trainingRatio, Random random) {
+		return stratifiedSplit(labels, trainingRatio, random);
+	}
+
+	/**
+	 * Splits the indices of a label array into a training and a test set, stratified by label, as
+	 * {@link #stratifiedSplit(double, Random)} does for the samples of a matrix.
+	 *
+	 * @param labels The label of each sample.
+	 * @return The indices of the training samples and the indices of the test samples, grouped by label.
+	 */
+	public static int[][] stratifiedSplit(int[] labels, double trainingRatio, Random random) {
+		int numSamples = labels.length;
+		int maxLabel = 0;
+		for (int label : labels) {
+			maxLabel = Math.max(maxLabel, label);
+		}
+
+		// Counting sort of the rows by label
+		int[] offsets = new int[maxLabel + 2];
+		for (int label : labels) {
+			offsets[label + 1]++;
+		}
+		for (int label = 0; label <= maxLabel; label++) {
+			offsets[label + 1] += offsets[label];
+		}
+		int[] rowsByLabel = new int[numSamples];
+		int[] next = offsets.clone();
+		for (int i = 0; i < numSamples; i++) {
+			rowsByLabel[next[labels[i]]++] = i;
+		}
+
+		int numTraining = 0;
+		for (int label = 0; label <= maxLabel; label++) {
+			numTraining += (int) Math.ceil((offsets[label + 1] - offsets[label]) * trainingRatio);
+		}
+		int[] trainingRows = new int[numTraining];
+		int[] testRows = new int[numSamples - numTraining];
+		int t = 0;
+		int s = 0;
+		for (int label = 0; label <= maxLabel; label++) {
+			int start = offsets[label];
+			int end = offsets[label + 1];
+			for (int i = end - 1; i > start; i--) {
+				int j = start + random.nextInt(i - start + 1);
+				int tmp = rowsByLabel[i];
+				rowsByLabel[i] = rowsByLabel[j];
+				rowsByLabel[j] = tmp;
+			}
+			int splitIndex = start + (int) Math.ceil((end - start) * trainingRatio);
+			for (int i = start; i < end; i++) {
+				if (i < splitIndex) {
+					trainingRows[t++] = rowsByLabel[i];
+				} else {
+					testRows[s++] = rowsByLabel[i];
+				}
+			}
+		}
+
+		log.info("Split samples into " + trainingRows.length + " training samples and " + testRows.length + " test samples.");
+		return new int[][]{trainingRows, testRows};
+	}
+
+	/**
+	 * Builds the libsvm training problem for the given rows. The svm_node of every sample are created once and shared
+	 * between all problems built from this matrix.
+	 */
+	public svm_problem toProblem(int[] rows) {
+		svm_node[][] nodes = getNodes();
+		svm_problem problem = new svm_problem();
+		problem.l = rows.length;
+		problem.x = new svm_node[rows.length][];
+		problem.y = new double[rows.length];
+		for (int i = 0; i < rows.length; i++) {
+			problem.x[i] = nodes[rows[i]];
+			problem.y[i] = labels[rows[i]];
+		}
+		return problem;
+	}
+
+	private synchronized svm_node[][] getNodes() {
+		if (nodes == null) {
+			nodes = new svm_node[numSamples][numFeatures];
+			for (int i = 0; i < numSamples; i++) {
+				for (int f = 0; f < numFeatures; f++) {
+					svm_node node = new svm_node();
+					node.index = f + 1;
+					node.value = features[i * numFeatures + f];
+					nodes[i][f] = node;
+				}
+			}
+		}
+		return nodes;
+	}
+
+	public int size() {
+		return numSamples;
+	}
+
+	public int getNumFeatures() {
+		return numFeatures;
+	}
+
+	public double getFeature(int row, int feature) {
+		return features[row * numFeatures + feature];
+	}
+
+	public int getLabel(int row) {
+		return labels[row];
+	}
+
+	public int getPixelIndex(int row) {
+		return pixelIndices[row];
+	}
+
+	/**
+	 * @return The backing feature array, row-major.
+	 */
+	public double[] getFeatures() {
+		return features;
+	}
+}
@@ -0,0 +1,145 @@
+package no.haavardsjef.classification;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Multi-class logistic regression on primitive arrays, trained with mini-batch stochastic gradient descent.
+ * Training runs in the calling thread and is deterministic for a given random generator. A mini-batch is too little
+ * work to split over threads, so concurrency comes from running independent classification runs at once, see
+ * {@link ClassificationRunExecutor}. Prediction is parallel over the samples.
+ */
+public class SoftmaxRegression {
+
+	private static final int BATCH_SIZE = 256;
+
+	private final int numClasses;
+	private final int numFeatures;
+	private final double[] weights; // shape: [numClasses * (numFeatures + 1)], row-major, the last value of each row is the bias
+
+	/**
+	 * @param numClasses  The number of classes, labels are in [1, numClasses].
+	 * @param numFeatures The number of features per sample.
+	 */
+	public SoftmaxRegression(int numClasses, int numFeatures) {
+		this.numClasses = numClasses;
+		this.numFeatures = numFeatures;
+		this.weights = new double[numClasses * (numFeatures + 1)];
+	}
+
+	/**
+	 * Trains the model on the given rows, continuing from the current weights.
+	 *
+	 * @param samples        The samples, with labels in [1, numClasses].
+	 * @param rows           The rows of the training samples.
+	 * @param numEpochs      The number of passes over the training samples.
+	 * @param learningRate   The initial step size, decayed as 1 / (1 + epoch).
+	 * @param regularization The L2 penalty on the weights, not applied to the biases.
+	 * @param random         Used to shuffle the training samples every epoch.
+	 */
+	public void fit(SampleMatrix samples, int[] rows, int numEpochs, double learningRate, double regularization, Random random) {
+		if (samples.getNumFeatures() != numFeatures) {
+			throw new IllegalArgumentException("Expected " + numFeatures + " features, got " + samples.getNumFeatures());
+		}
+		int stride = numFeatures + 1;
+		double[] gradient = new double[weights.length];
+		double[] probabilities = new double[numClasses];
+		int[] order = rows.clone();
+		double[] features = samples.getFeatures();
+
+		for (int epoch = 0; epoch < numEpochs; epoch++) {
+			for (int i = order.length - 1; i > 0; i--) {
+				int j = random.nextInt(i + 1);
+				int tmp = order[i];
+				order[i] = order[j];
+				order[j] = tmp;
+			}
+			double rate = learningRate / (1 + epoch);
+
+			for (int batchStart = 0; batchStart < order.length; batchStart += BATCH_SIZE) {
+				int batchEnd = Math.min(order.length, batchStart + BATCH_SIZE);
+				int batchSize = batchEnd - batchStart;
+
+				Arrays.fill(gradient, 0.0);
+				for (int i = batchStart; i < batchEnd; i++) {
+					int row = order[i];
+					computeProbabilities(samples, row, probabilities);
+					probabilities[samples.getLabel(row) - 1] -= 1.0;
+					int offset = row * numFeatures;
+					for (int c = 0; c < numClasses; c++) {
+						double error = probabilities[c];
+						int weightOffset = c * stride;
+						for (int f = 0; f < numFeatures; f++) {
+							gradient[weightOffset + f] += error * features[offset + f];
+						}
+						gradient[weightOffset + numFeatures] += error;
+					}
+				}
+
+				double scale = rate / batchSize;
+				for (int w = 0; w < weights.length; w++) {
+					boolean isBias = w % stride == numFeatures;
+					weights[w] -= scale * gradient[w] + (isBias ? 0.0 : rate * regularization * weights[w]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Predicts the label of every sample, in parallel.
+	 *
+	 * @return The predicted labels, in [1, numClasses], in the same order as the rows.
+	 */
+	public int[] predict(SampleMatrix samples, int[] rows) {
+		int[] predictedLabels = new int[rows.length];
+		IntStream.range(0, rows.length).parallel().forEach(i -> predictedLabels[i] = predict(samples, rows[i]));
+		return predictedLabels;
+	}
+
+	private int predict(SampleMatrix samples, int row) {
+		double[] features = samples.getFeatures();
+		int offset = row * numFeatures;
+		int stride = numFeatures + 1;
+		int best = 0;
+		double bestScore = Double.NEGATIVE_INFINITY;
+		for (int c = 0; c < numClasses; c++) {
+			double score = score(features, offset, c * stride);
+			if (score > bestScore) {
+				bestScore = score;
+				best = c;
+			}
+		}
+		return best + 1;
+	}
+
+	/**
+	 * Computes the softmax of the class scores of a sample into probabilities.
+	 */
+	private void computeProbabilities(SampleMatrix samples, int row, double[] probabilities) {
+		double[] features = samples.getFeatures();
+		int offset = row * numFeatures;
+		int stride = numFeatures + 1;
+		double maxScore = Double.NEGATIVE_INFINITY;
+		for (int c = 0; c < numClasses; c++) {
+			probabilities[c] = score(features, offset, c * stride);
+			maxScore = Math.max(maxScore, probabilities[c]);
+		}
+		double sum = 0.0;
+		for (int c = 0; c < numClasses; c++) {
+			probabilities[c] = Math.exp(probabilities[c] - maxScore);
+			sum += probabilities[c];
+		}
+		for (int c = 0; c < numClasses; c++) {
+			probabilities[c] /= sum;
+		}
+	}
+
+	private double score(double[] features, int offset, int weightOffset) {
+		double score = weights[weightOffset + numFeatures];
+		for (int f = 0; f < numFeatures; f++) {
+			score += weights[weightOffset + f] * features[offset + f];
+		}
+		return score;
+	}
+}
@@ -0,0 +1,92 @@
+package no.haavardsjef.dataset;
+
+import lombok.extern.log4j.Log4j2;
+import no.haavardsjef.metrics.Metrics;
+import no.haavardsjef.utility.DistanceMeasure;
+
+import java.util.stream.IntStream;
+
+/**
+ * Precomputed distances between every pair of bands (or data points) for a single distance measure.
+ * Symmetric measures are stored as a packed upper-triangular array (diagonal included),
+ * asymmetric measures are stored as a full row-major matrix.
+ */
+@Log4j2
+public class BandDistanceMatrix {
+
+	@FunctionalInterface
+	public interface DistanceFunction {
+		double distance(int index1, int index2);
+	}
+
+	private final int size;
+	private final boolean symmetric;
+	private final double[] distances;
+
+	private BandDistanceMatrix(int size, boolean symmetric, double[] distances) {
+		this.size = size;
+		this.symmetric = symmetric;
+		this.distances = distances;
+	}
+
+	/**
+	 * Computes the distance matrix for the given distance measure. Rows are computed in parallel,
+	 * so the distance function must be safe to call concurrently.
+	 *
+	 * @param size             The number of bands (or data points).
+	 * @param distanceMeasure  The distance measure, used to decide whether the matrix is symmetric.
+	 * @param distanceFunction The function computing the distance between two indices.
+	 * @return The precomputed distance matrix.
+	 */
+	public static BandDistanceMatrix compute(int size, DistanceMeasure distanceMeasure, DistanceFunction distanceFunction) {
+		log.info("Precomputing {} distances for {} bands", distanceMeasure, size);
+		long startTime = System.nanoTime();
+		boolean symmetric = distanceMeasure.isSymmetric();
+		double[] distances = new double[symmetric ? packedLength(size) : size * size];
+
+		IntStream.range(0, size).parallel().forEach(i -> {
+			int offset = symmetric ? rowOffset(size, i) - i : i * size;
+			for (int j = symmetric ? i : 0; j < size; j++) {
+				distances[offset + j] = distanceFunction.distance(i, j);
+			}
+		});
+
+		long elapsed = Metrics.timer(Metrics.DISTANCE_PRECOMPUTE).recordSince(startTime);
+		log.info("{} distances precomputed in {} ms", distanceMeasure, elapsed / 1_000_000);
+		return new BandDistanceMatrix(size, symmetric, distances);
+	}
+
+	/**
+	 * @return The distance between the two indices.
+	 */
+	public double get(int index1, int index2) {
+		if (!symmetric) {
+			return distances[index1 * size + index2];
+		}
+		if (index1 > index2) {
+			int tmp = index1;
+			index1 = index2;
+			index2 = tmp;
+		}
+		return distances[rowOffset(size, index1) + index2 - index1];
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public boolean isSymmetric() {
+		return symmetric;
+	}
+
+	private static int packedLength(int size) {
+		return size * (size + 1) / 2;
+	}
+
+	/**
+	 * Offset of the diagonal element of the given row in the packed upper-triangular array.
+	 */
+	private static int rowOffset(int size, int row) {
+		return row * size - row * (row - 1) / 2;
+	}
+}
@@ -7,6 +7,8 @@ import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.indexing.NDArrayIndex;
 
 import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
 
 public class BenchmarkDataset implements IDataset {
 
@@ -15,6 +17,7 @@ public class BenchmarkDataset implements IDataset {
 	private String datasetPath;
 	private BenchmarkDatasetName datasetName;
 	private Bounds bounds;
+	private final Map<DistanceMeasure, BandDistanceMatrix> distanceMatrices = new EnumMap<>(DistanceMeasure.class);
 
 	public BenchmarkDataset(BenchmarkDatasetName datasetName) throws IOException {
 		this.datasetPath = "data/benchmarks/" + datasetName;
@@ -61,6 +64,12 @@ public class BenchmarkDataset implements IDataset {
 		}
 	}
 
+	@Override
+	public synchronized BandDistanceMatrix getDistanceMatrix(DistanceMeasure distanceMeasure) {
+		return this.distanceMatrices.computeIfAbsent(distanceMeasure,
+				measure -> BandDistanceMatrix.compute((int) this.data.shape()[0], measure, (i1, i2) -> this.distance(measure, i1, i2)));
+	}
+
 	public double[][] getDataAsArray() {
 		return this.data.toDoubleMatrix();
 	}
@@ -2,21 +2,28 @@ package no.haavardsjef.dataset;
 
 import com.google.common.math.DoubleMath;
 import lombok.extern.log4j.Log4j2;
+import no.haavardsjef.metrics.Metrics;
 import no.haavardsjef.superpixelsegmentation.SuperpixelContainer;
 import no.haavardsjef.utility.Bounds;
+import no.haavardsjef.utility.CubeFile;
 import no.haavardsjef.utility.DistanceMeasure;
 import no.haavardsjef.utility.HyperspectralDataLoader;
 
+import org.nd4j.linalg.api.buffer.DataType;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 import org.nd4j.linalg.indexing.NDArrayIndex;
-import org.nd4j.linalg.indexing.BooleanIndexing;
-import org.nd4j.linalg.indexing.conditions.Conditions;
 
 import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.IntStream;
 
@@ -27,8 +34,10 @@ import java.util.stream.IntStream;
 @Log4j2
 public class Dataset implements IDataset {
 
-	private INDArray data;
-	private double[][][] dataAsArray;
+	private INDArray data; // The only copy of the cube, shape: [numBands, imageHeight, imageWidth]
+	private final DataType storageType;
+	private FloatBuffer floatStore; // Zero-copy view of data when stored as float32
+	private DoubleBuffer doubleStore; // Zero-copy view of data when stored as float64
 	public INDArray groundTruth;
 	private int numBands;
 	private int imageWidth;
@@ -37,6 +46,7 @@ public class Dataset implements IDataset {
 	private int numClasses;
 	private final String datasetPath;
 	private final DatasetName datasetName;
+	private final String cubeName; // The cube file the data was loaded from, without extension
 	private SuperpixelContainer superpixelContainer;
 	private Bounds bounds;
 	private List<Double> entropies;
@@ -50,37 +60,59 @@ public class Dataset implements IDataset {
 	private double[][][] probabilityDistributionsSP;
 	private double[][] KlDivergencesSuperpixelLevel;
 	private double[][] DisjointInfosSuperpixelLevel;
-	private final double[][] pixelEuclideanDistances;
-	private final double[][] SPEuclideanDistances;
+	private final Map<DistanceMeasure, BandDistanceMatrix> distanceMatrices = new EnumMap<>(DistanceMeasure.class);
+
+	private static final long DEFAULT_FEATURE_MATRIX_CACHE_BYTES = 256L * 1024 * 1024;
+	private float[] pixelMajorFloats; // Interleaved copy of the cube, shape: [numPixels * numBands], built on first use
+	private double[] pixelMajorDoubles;
+	private final Map<List<Integer>, double[]> featureMatrices = new LinkedHashMap<>(16, 0.75f, true); // In access order
+	private long featureMatrixCacheBytes = DEFAULT_FEATURE_MATRIX_CACHE_BYTES;
+	private long cachedFeatureMatrixBytes;
 
 	private double[][][] histogramStatistics;  // 3D array to store the histogram statistics
 	private double[][][] klDivergence;  // 3D array to store the KL divergence values
-	private int[][] superpixelSegmentation;  // 2D array to store the superpixel segmentation
 
 	private int numSuperpixels;
 
 	private final int NUM_BINS = 256;
 
 	public Dataset(DatasetName datasetName) throws IOException {
-		this.datasetPath = "data/" + datasetName;
-		this.datasetName = datasetName;
-		this.load(true);
-		this.calculateProbabilityDistributions();
-		this.calculateEntropies();
-
-		pixelEuclideanDistances = new double[numBands][numBands];
-		SPEuclideanDistances = new double[numBands][numBands];
+		this(datasetName, true);
 	}
 
 	public Dataset(DatasetName datasetName, boolean corrected) throws IOException {
+		this(datasetName, corrected, null);
+	}
+
+	/**
+	 * @param storageType The data type to store the cube as, FLOAT or DOUBLE. If null, the precision of the cube file is used.
+	 */
+	public Dataset(DatasetName datasetName, boolean corrected, DataType storageType) throws IOException {
 		this.datasetPath = "data/" + datasetName;
 		this.datasetName = datasetName;
+		this.cubeName = corrected ? datasetName + "_corrected" : datasetName.toString();
+		this.storageType = storageType;
 		this.load(corrected);
 		this.calculateProbabilityDistributions();
 		this.calculateEntropies();
-		pixelEuclideanDistances = new double[numBands][numBands];
-		SPEuclideanDistances = new double[numBands][numBands];
+	}
 
+	/**
+	 * Creates a dataset from a cube already in memory, e.g. a synthetic cube for benchmarks.
+	 *
+	 * @param data        The cube, shape: [numBands, imageHeight, imageWidth]. Stored as a contiguous copy.
+	 * @param groundTruth The class labels, shape: [imageHeight, imageWidth], 0 for unlabelled pixels.
+	 */
+	public Dataset(INDArray data, INDArray groundTruth) {
+		this.datasetPath = null;
+		this.datasetName = null;
+		this.cubeName = null;
+		this.storageType = data.dataType();
+		this.data = data.dup('c');
+		this.groundTruth = groundTruth;
+		this.initialize();
+		this.calculateProbabilityDistributions();
+		this.calculateEntropies();
 	}
 
 
@@ -90,24 +122,45 @@ public class Dataset implements IDataset {
 	 * @throws IOException if the dataset cannot be loaded
 	 */
 	private void load(boolean corrected) throws IOException {
-		String correctedDataPath = "";
-		if (corrected) {
-			correctedDataPath = this.datasetPath + "/" + this.datasetName + "_corrected.mat";
-		} else {
-			correctedDataPath = this.datasetPath + "/" + this.datasetName + ".mat";
-		}
+		long startTime = System.nanoTime();
+		String correctedDataPath = this.datasetPath + "/" + this.cubeName + ".mat";
 		String groundTruthPath = this.datasetPath + "/" + this.datasetName + "_gt.mat";
-		this.data = HyperspectralDataLoader.loadData(correctedDataPath);
-		// Also convert to 3D array for easier access.
-		this.dataAsArray = new double[(int) this.data.shape()[0]][(int) this.data.shape()[1]][(int) this.data.shape()[2]];
-		for (int i = 0; i < this.data.shape()[0]; i++) {
-			for (int j = 0; j < this.data.shape()[1]; j++) {
-				for (int k = 0; k < this.data.shape()[2]; k++) {
-					this.dataAsArray[i][j][k] = this.data.getDouble(i, j, k);
+		try (CubeFile cube = HyperspectralDataLoader.loadCube(correctedDataPath)) {
+			DataType dataType = this.storageType;
+			if (dataType == null) {
+				dataType = cube.getDataType() == CubeFile.DataType.FLOAT32 ? DataType.FLOAT : DataType.DOUBLE;
+			}
+			this.data = Nd4j.create(dataType, cube.getNumBands(), cube.getHeight(), cube.getWidth());
+
+			// Fill the store one band at a time, so that only one full copy of the cube is ever held
+			float[] floatBand = new float[cube.getNumPixels()];
+			double[] doubleBand = new double[cube.getNumPixels()];
+			for (int b = 0; b < cube.getNumBands(); b++) {
+				INDArray band;
+				if (dataType == DataType.FLOAT) {
+					cube.readBand(b, floatBand, 0);
+					band = Nd4j.createFromArray(floatBand);
+				} else {
+					cube.readBand(b, doubleBand, 0);
+					band = Nd4j.createFromArray(doubleBand);
 				}
+				this.data.get(NDArrayIndex.point(b), NDArrayIndex.all(), NDArrayIndex.all()).assign(band.reshape(cube.getHeight(), cube.getWidth()));
 			}
 		}
 		this.groundTruth = HyperspectralDataLoader.loadGroundTruth(groundTruthPath);
+		this.initialize();
+		Metrics.timer(Metrics.DATASET_LOAD).recordSince(startTime);
+	}
+
+	/**
+	 * Sets up the views of the backing store and the metadata, once data and groundTruth are set.
+	 */
+	private void initialize() {
+		if (this.data.dataType() == DataType.FLOAT) {
+			this.floatStore = this.data.data().asNioFloat();
+		} else {
+			this.doubleStore = this.data.data().asNioDouble();
+		}
 		this.numBands = (int) this.data.shape()[0];
 		this.imageWidth = (int) this.data.shape()[2];
 		this.imageHeight = (int) this.data.shape()[1];
@@ -116,23 +169,21 @@ public class Dataset implements IDataset {
 		this.bounds = new Bounds(0, this.numBands - 1);
 		log.info("Dataset {} loaded, numBands: {}, imageWidth: {}, imageHeight: {}, numPixels: {}, numClasses: {}", this.datasetName,
 				this.numBands, this.imageWidth, this.imageHeight, this.numPixels, this.numClasses);
-
 	}
 
 	/**
 	 * Initializes the superpixel container. Must be called before using any superpixel related methods.
 	 */
 	public void setupSuperpixelContainer(int numSuperpixels, float spatialWeight) {
+		long startTime = System.nanoTime();
 		this.superpixelContainer = new SuperpixelContainer(this.data, numSuperpixels, spatialWeight);
 		this.numSuperpixels = this.superpixelContainer.getNumSuperpixels();
-		this.superpixelSegmentation = this.superpixelContainer.getSuperixelmap().toIntMatrix();
-
+		this.invalidateSuperpixelDistanceMatrices();
+		Metrics.timer(Metrics.SUPERPIXEL_SETUP).recordSince(startTime);
 	}
 
 	public void setupSuperpixelContainer() {
-		this.superpixelContainer = new SuperpixelContainer(this.data, 100, 200f);
-		this.numSuperpixels = this.superpixelContainer.getNumSuperpixels();
-		this.superpixelSegmentation = this.superpixelContainer.getSuperixelmap().toIntMatrix();
+		this.setupSuperpixelContainer(100, 200f);
 	}
 
 
@@ -155,13 +206,22 @@ public class Dataset implements IDataset {
 //		return bandData1.distance2(bandData2); // Returns the euclidean distance.
 //	}
 	public double euclideanDistance(int bandIndex1, int bandIndex2) {
-		if (pixelEuclideanDistances[bandIndex1][bandIndex2] == 0.0) {
-			double[][] bandData1 = this.dataAsArray[bandIndex1];
-			double[][] bandData2 = this.dataAsArray[bandIndex2];
+		int offset1 = bandIndex1 * this.numPixels;
+		int offset2 = bandIndex2 * this.numPixels;
 
-			pixelEuclideanDistances[bandIndex1][bandIndex2] = calculateEuclideanDistance(bandData1, bandData2);
+		double sum = 0.0;
+		if (this.floatStore != null) {
+			for (int i = 0; i < this.numPixels; i++) {
+				double diff = this.floatStore.get(offset1 + i) - this.floatStore.get(offset2 + i);
+				sum += diff * diff;
+			}
+		} else {
+			for (int i = 0; i < this.numPixels; i++) {
+				double diff = this.doubleStore.get(offset1 + i) - this.doubleStore.get(offset2 + i);
+				sum += diff * diff;
+			}
 		}
-		return pixelEuclideanDistances[bandIndex1][bandIndex2];
+		return Math.sqrt(sum);
 	}
 
 //	public void precomputeEuclideanDistances() {
@@ -181,20 +241,6 @@ public class Dataset implements IDataset {
 //		}
 //	}
 
-	private double calculateEuclideanDistance(double[][] bandData1, double[][] bandData2) {
-		int numRows = bandData1.length;
-		int numCols = bandData1[0].length;
-
-		double sum = 0.0;
-		for (int row = 0; row < numRows; row++) {
-			for (int col = 0; col < numCols; col++) {
-				double diff = bandData1[row][col] - bandData2[row][col];
-				sum += diff * diff;
-			}
-		}
-		return Math.sqrt(sum);
-	}
-
 	@Override
 	public INDArray getData() {
 		return this.data;
@@ -217,6 +263,13 @@ public class Dataset implements IDataset {
 		return datasetName;
 	}
 
+	/**
+	 * @return The name of the cube file the data was loaded from, e.g. Salinas_corrected, or null for a cube created in memory.
+	 */
+	public String getCubeName() {
+		return cubeName;
+	}
+
 	public INDArray getSuperPixelMap() {
 		return superpixelContainer.getSuperixelmap();
 	}
@@ -238,13 +291,13 @@ public class Dataset implements IDataset {
 //		return bandData1.distance2(bandData2); // Returns the euclidean distance.
 //	}
 	public double euclideanDistanceSP(int bandIndex1, int bandIndex2) {
-		if (this.SPEuclideanDistances[bandIndex1][bandIndex2] == 0.0) {
-			double[] bandData1 = this.superpixelContainer.getSuperpixelMeansArr(bandIndex1);
-			double[] bandData2 = this.superpixelContainer.getSuperpixelMeansArr(bandIndex2);
-
-			SPEuclideanDistances[bandIndex1][bandIndex2] = euclideanDistance(bandData1, bandData2);
+		if (this.superpixelContainer == null) {
+			throw new IllegalStateException("SuperpixelContainer is not initialized.");
 		}
-		return SPEuclideanDistances[bandIndex1][bandIndex2];
+		double[] bandData1 = this.superpixelContainer.getSuperpixelMeansArr(bandIndex1);
+		double[] bandData2 = this.superpixelContainer.getSuperpixelMeansArr(bandIndex2);
+
+		return euclideanDistance(bandData1, bandData2);
 	}
 
 	private double euclideanDistance(double[] vector1, double[] vector2) {
@@ -260,19 +313,15 @@ public class Dataset implements IDataset {
 		return Math.sqrt(sum);
 	}
 
+	/**
+	 * Copies the cube into an array of shape [numBands][numPixels].
+	 */
 	public double[][] getDataAsArray() {
-		int firstDim = (int) this.data.size(0);
-		int flattenedSize = (int) (this.data.size(1) * this.data.size(2));
-
-		double[][] result = new double[firstDim][];
-
-		// Iterate through the first dimension
-		for (int i = 0; i < firstDim; i++) {
-			// Get the 2D tensor along the first dimension
-			INDArray tensor = this.data.tensorAlongDimension(i, 1, 2);
-
-			// Flatten the 2D tensor and store it in the result array
-			result[i] = tensor.reshape(flattenedSize).toDoubleVector();
+		double[][] result = new double[this.numBands][this.numPixels];
+		for (int b = 0; b < this.numBands; b++) {
+			for (int p = 0; p < this.numPixels; p++) {
+				result[b][p] = this.getValue(b, p);
+			}
 		}
 		return result;
 	}
@@ -281,6 +330,31 @@ public class Dataset implements IDataset {
 		return this.data.get(NDArrayIndex.point(bandIndex), NDArrayIndex.all(), NDArrayIndex.all());
 	}
 
+	/**
+	 * Gets the value of a pixel in a band, read directly from the backing store.
+	 *
+	 * @param bandIndex  The index of the band.
+	 * @param pixelIndex The row-major index of the pixel.
+	 */
+	public double getValue(int bandIndex, int pixelIndex) {
+		int index = bandIndex * this.numPixels + pixelIndex;
+		return this.floatStore != null ? this.floatStore.get(index) : this.doubleStore.get(index);
+	}
+
+	/**
+	 * Gets the spectrum of a pixel, as a view of the backing store.
+	 *
+	 * @param pixelIndex The row-major index of the pixel.
+	 * @return An INDArray of shape [numBands].
+	 */
+	public INDArray getPixel(int pixelIndex) {
+		return this.data.reshape(this.numBands, this.numPixels).get(NDArrayIndex.all(), NDArrayIndex.point(pixelIndex));
+	}
+
+	public DataType getStorageType() {
+		return this.data.dataType();
+	}
+
 	public INDArray getBandFlattened(int bandIndex) {
 		return this.data.get(NDArrayIndex.point(bandIndex), NDArrayIndex.all(), NDArrayIndex.all()).reshape(this.numPixels);
 	}
@@ -295,6 +369,111 @@ public class Dataset implements IDataset {
 		return dataFlattened.get(NDArrayIndex.indices(bandIndexes.stream().mapToLong(i -> i).toArray()), NDArrayIndex.all());
 	}
 
+	/**
+	 * Gets the values of the selected bands for every pixel, pixel-major: the value of band selectedBands[k] at pixel p is
+	 * at index p * selectedBands.size() + k. Gathered from an interleaved copy of the cube, built on first use, and the
+	 * most recently used band subsets are cached up to the size set by {@link #setFeatureMatrixCacheBytes}, so the
+	 * returned array is shared and must not be modified. {@link #clearFeatureMatrices} releases the copy and the cache.
+	 *
+	 * @param selectedBands The bands to include, in order.
+	 * @return The feature matrix, shape: [numPixels * selectedBands.size()].
+	 */
+	public synchronized double[] getFeatureMatrix(List<Integer> selectedBands) {
+		List<Integer> key = List.copyOf(selectedBands);
+		double[] featureMatrix = this.featureMatrices.get(key);
+		if (featureMatrix == null) {
+			featureMatrix = this.gatherFeatureMatrix(key);
+			long bytes = featureMatrix.length * (long) Double.BYTES;
+			// A matrix larger than the whole cache is returned without caching it
+			if (bytes <= this.featureMatrixCacheBytes) {
+				this.featureMatrices.put(key, featureMatrix);
+				this.cachedFeatureMatrixBytes += bytes;
+				this.evictFeatureMatrices();
+			}
+		}
+		return featureMatrix;
+	}
+
+	/**
+	 * Sets the total size of the cached feature matrices, evicting the least recently used ones if they exceed it.
+	 * Defaults to 256 MiB, 0 disables the cache.
+	 */
+	public synchronized void setFeatureMatrixCacheBytes(long maxBytes) {
+		this.featureMatrixCacheBytes = maxBytes;
+		this.evictFeatureMatrices();
+	}
+
+	/**
+	 * Discards the cached feature matrices and the interleaved copy of the cube, e.g. when a sweep is done with the
+	 * classifiers. They are rebuilt on next use.
+	 */
+	public synchronized void clearFeatureMatrices() {
+		this.featureMatrices.clear();
+		this.cachedFeatureMatrixBytes = 0;
+		this.pixelMajorFloats = null;
+		this.pixelMajorDoubles = null;
+	}
+
+	private void evictFeatureMatrices() {
+		Iterator<double[]> leastRecentlyUsed = this.featureMatrices.values().iterator();
+		while (this.cachedFeatureMatrixBytes > this.featureMatrixCacheBytes && leastRecentlyUsed.hasNext()) {
+			this.cachedFeatureMatrixBytes -= leastRecentlyUsed.next().length * (long) Double.BYTES;
+			leastRecentlyUsed.remove();
+		}
+	}
+
+	private double[] gatherFeatureMatrix(List<Integer> selectedBands) {
+		if (this.pixelMajorFloats == null && this.pixelMajorDoubles == null) {
+			this.buildPixelMajorCopy();
+		}
+		int[] bands = selectedBands.stream().mapToInt(Integer::intValue).toArray();
+		int numSelected = bands.length;
+		double[] featureMatrix = new double[this.numPixels * numSelected];
+		IntStream.range(0, this.numPixels).parallel().forEach(p -> {
+			int source = p * this.numBands;
+			int target = p * numSelected;
+			for (int k = 0; k < numSelected; k++) {
+				featureMatrix[target + k] = this.pixelMajorFloats != null ? this.pixelMajorFloats[source + bands[k]] : this.pixelMajorDoubles[source + bands[k]];
+			}
+		});
+		return featureMatrix;
+	}
+
+	/**
+	 * Builds the interleaved copy of the cube, in the storage precision. The pixels are transposed in blocks,
+	 * so both the band-major reads and the pixel-major writes stay within cache.
+	 */
+	private void buildPixelMajorCopy() {
+		log.info("Building pixel-major copy of the cube");
+		int blockSize = 1024;
+		int numBlocks = (this.numPixels + blockSize - 1) / blockSize;
+		if (this.floatStore != null) {
+			float[] pixelMajor = new float[this.numPixels * this.numBands];
+			IntStream.range(0, numBlocks).parallel().forEach(block -> {
+				int end = Math.min(this.numPixels, (block + 1) * blockSize);
+				for (int b = 0; b < this.numBands; b++) {
+					int offset = b * this.numPixels;
+					for (int p = block * blockSize; p < end; p++) {
+						pixelMajor[p * this.numBands + b] = this.floatStore.get(offset + p);
+					}
+				}
+			});
+			this.pixelMajorFloats = pixelMajor;
+		} else {
+			double[] pixelMajor = new double[this.numPixels * this.numBands];
+			IntStream.range(0, numBlocks).parallel().forEach(block -> {
+				int end = Math.min(this.numPixels, (block + 1) * blockSize);
+				for (int b = 0; b < this.numBands; b++) {
+					int offset = b * this.numPixels;
+					for (int p = block * blockSize; p < end; p++) {
+						pixelMajor[p * this.numBands + b] = this.doubleStore.get(offset + p);
+					}
+				}
+			});
+			this.pixelMajorDoubles = pixelMajor;
+		}
+	}
+
 	public INDArray getBandMax() {
 		return this.data.max(1, 2);
 	}
@@ -434,6 +613,7 @@ public class Dataset implements IDataset {
 				this.KlDivergencesSuperpixelLevel[bandindex1][bandindex2] = calculateKlDivergenceSP(bandindex1, bandindex2);
 			}
 		}
+		this.invalidateSuperpixelDistanceMatrices();
 	}
 
 	private double calculateKlDivergenceSP(int bandIndex1, int bandIndex2) {
@@ -475,14 +655,13 @@ public class Dataset implements IDataset {
 		int NUM_BINS = 256;
 
 
+		// Does not write the epsilon back into the distribution, so that distances can be computed concurrently
 		double kl = IntStream.range(0, NUM_BINS).mapToDouble(i -> {
-			if (probDistBand2[i] == 0.0 && probDistBand1[i] != 0.0) {
-				probDistBand2[i] = 0.0000001;
-			}
-			if (probDistBand2[i] == 0.0 && probDistBand1[i] == 0.0) {
+			if (probDistBand1[i] == 0.0) {
 				return 0;
 			}
-			return probDistBand1[i] * DoubleMath.log2(probDistBand1[i] / probDistBand2[i]);
+			double p2 = probDistBand2[i] == 0.0 ? 0.0000001 : probDistBand2[i];
+			return probDistBand1[i] * DoubleMath.log2(probDistBand1[i] / p2);
 		}).sum();
 		return kl;
 	}
@@ -524,6 +703,7 @@ public class Dataset implements IDataset {
 			}
 			this.probabilityDistributionsSPmean[bandIndex] = normalHistogram;
 		}
+		this.invalidateSuperpixelDistanceMatrices();
 	}
 
 	/**
@@ -581,56 +761,9 @@ public class Dataset implements IDataset {
 	public void calculateProbabilityDistributionsSP() {
 		log.info("Calculating probability distributions for each superpixel for dataset {}...", this.datasetName);
 
-		int NUM_BINS = 256;
-		this.probabilityDistributionsSP = new double[this.numBands][this.getNumSuperpixels()][NUM_BINS];
-
-		INDArray SP_map = superpixelContainer.getSuperixelmap();
-		if (this.superpixelContainer == null) {
-			throw new IllegalStateException("SuperpixelContainer is not initialized.");
-		}
-
-//		for (int bandIndex = 0; bandIndex < this.numBands; bandIndex++) {
-		IntStream.range(0, this.numBands).parallel().forEach(bandIndex -> {
-
-
-			double[][] probabilityDistributionSP = new double[this.getNumSuperpixels()][NUM_BINS];
-			INDArray bandData = this.data.get(NDArrayIndex.point(bandIndex), NDArrayIndex.all(), NDArrayIndex.all());
-			IntStream.range(0, this.getNumSuperpixels()).forEach(superpixelIndex -> {
-
-				INDArray result = bandData.mul(SP_map.eq(superpixelIndex));
-
-				INDArray superpixelBandData = result.dup().reshape(numPixels);
-
-
-				int[] histogram = new int[NUM_BINS];
-				double[] normalHistogram = new double[NUM_BINS];
-
-				double max = (double) superpixelBandData.maxNumber();
-				BooleanIndexing.replaceWhere(superpixelBandData, 5000, Conditions.equals(0.0));
-				double min = (double) superpixelBandData.minNumber();
-				double[] r = superpixelBandData.toDoubleVector();
-
-				int countp = 0;
-
-				// Bin all superpixels to create histogram
-				for (double p : r) {
-					if (p != 5000) {
-						int bin = (int) Math.floor((p - min) / (max - min) * (NUM_BINS - 1));
-						histogram[bin] += 1;
-						countp += 1;
-					}
-				}
-
-				// Normalize histogram into probability distribution
-				for (int i = 0; i < NUM_BINS; i++) {
-					normalHistogram[i] = (double) histogram[i] / (double) (countp);
-				}
-
-				probabilityDistributionSP[superpixelIndex] = normalHistogram;
-			});
-			this.probabilityDistributionsSP[bandIndex] = probabilityDistributionSP;
-//		}
-		});
+		this.probabilityDistributionsSP = new double[this.numBands][][];
+		IntStream.range(0, this.numBands).parallel().forEach(bandIndex ->
+				this.probabilityDistributionsSP[bandIndex] = this.calculateSuperpixelHistograms(bandIndex));
 	}
 
 
@@ -679,6 +812,7 @@ public class Dataset implements IDataset {
 			}
 		}
 		this.correlationCoefficientsSPmean = correlationCoefficients;
+		this.invalidateSuperpixelDistanceMatrices();
 	}
 
 	/**
@@ -705,6 +839,7 @@ public class Dataset implements IDataset {
 				this.DisjointInfosSuperpixelLevel[bandindex2][bandindex1] = this.DisjointInfosSuperpixelLevel[bandindex1][bandindex2];
 			}
 		}
+		this.invalidateSuperpixelDistanceMatrices();
 	}
 
 
@@ -736,7 +871,39 @@ public class Dataset implements IDataset {
 	}
 
 
+	/**
+	 * Gets the distance between two bands, read from the precomputed distance matrix of the given measure.
+	 */
+	@Override
 	public double distance(DistanceMeasure distanceMeasure, int bandIndex1, int bandIndex2) {
+		return this.getDistanceMatrix(distanceMeasure).get(bandIndex1, bandIndex2);
+	}
+
+	/**
+	 * Gets the distance matrix for the given distance measure, computing it on first use.
+	 * Superpixel based matrices are discarded whenever the superpixel statistics they depend on are recalculated.
+	 *
+	 * @param distanceMeasure The distance measure to use.
+	 * @return The distance matrix between all bands.
+	 */
+	@Override
+	public synchronized BandDistanceMatrix getDistanceMatrix(DistanceMeasure distanceMeasure) {
+		return this.distanceMatrices.computeIfAbsent(distanceMeasure,
+				measure -> BandDistanceMatrix.compute(this.numBands, measure, (b1, b2) -> this.computeDistance(measure, b1, b2)));
+	}
+
+	/**
+	 * Discards all precomputed distance matrices, they are recomputed on next use.
+	 */
+	public synchronized void clearDistanceMatrices() {
+		this.distanceMatrices.clear();
+	}
+
+	private synchronized void invalidateSuperpixelDistanceMatrices() {
+		this.distanceMatrices.keySet().removeIf(DistanceMeasure::isSuperpixelBased);
+	}
+
+	private double computeDistance(DistanceMeasure distanceMeasure, int bandIndex1, int bandIndex2) {
 		switch (distanceMeasure) {
 			case PIXEL_EUCLIDEAN:
 				return this.euclideanDistance(bandIndex1, bandIndex2);
@@ -764,6 +931,13 @@ public class Dataset implements IDataset {
 		this.superpixelContainer.saveSPMap(path);
 	}
 
+	public SuperpixelContainer getSuperpixelContainer() {
+		if (this.superpixelContainer == null) {
+			throw new IllegalStateException("SuperpixelContainer is not initialized.");
+		}
+		return this.superpixelContainer;
+	}
+
 	public int getSuperpixelIndex(int pixelIndex) {
 		if (this.superpixelContainer == null) {
 			throw new IllegalStateException("SuperpixelContainer is not initialized.");
@@ -772,53 +946,55 @@ public class Dataset implements IDataset {
 	}
 
 	public void computeHistogramStatistics() {
-		// Initialize histogramStatistics
-		this.histogramStatistics = new double[this.numBands][this.numSuperpixels][NUM_BINS];
-
-		IntStream.range(0, this.numBands).parallel().forEach(bandIndex -> {
-			INDArray bandData = this.data.get(NDArrayIndex.point(bandIndex), NDArrayIndex.all(), NDArrayIndex.all());
-
-			IntStream.range(0, this.numSuperpixels).parallel().forEach(superpixelIndex -> {
-				boolean[][] superpixelMask = getSuperpixelMask(superpixelIndex);
-				INDArray superpixelBandData = Nd4j.zeros(numPixels);
-				for (int i = 0; i < numPixels; i++) {
-					if (superpixelMask[i / superpixelSegmentation[0].length][i % superpixelSegmentation[0].length]) {
-						superpixelBandData.putScalar(i, bandData.getDouble(i));
-					}
-				}
-
-				double max = (double) superpixelBandData.maxNumber();
-				BooleanIndexing.replaceWhere(superpixelBandData, 5000, Conditions.equals(0.0));
-				double min = (double) superpixelBandData.minNumber();
+		this.histogramStatistics = new double[this.numBands][][];
+		IntStream.range(0, this.numBands).parallel().forEach(bandIndex ->
+				this.histogramStatistics[bandIndex] = this.calculateSuperpixelHistograms(bandIndex));
+	}
 
-				int[] histogram = new int[NUM_BINS];
-				int countp = 0;
+	/**
+	 * Calculates the normalized histogram of every superpixel in a band, binned between the minimum and maximum
+	 * value of that superpixel. Visits each pixel of the band once, using the pixels grouped by superpixel.
+	 *
+	 * @param bandIndex The index of the band.
+	 * @return The probability distributions, shape: [numSuperpixels][NUM_BINS].
+	 */
+	private double[][] calculateSuperpixelHistograms(int bandIndex) {
+		if (this.superpixelContainer == null) {
+			throw new IllegalStateException("SuperpixelContainer is not initialized.");
+		}
+		int[] offsets = this.superpixelContainer.getSuperpixelOffsets();
+		int[] pixels = this.superpixelContainer.getSuperpixelPixels();
+		int numSuperpixels = this.superpixelContainer.getNumSuperpixels();
+
+		double[][] histograms = new double[numSuperpixels][NUM_BINS];
+		for (int superpixelIndex = 0; superpixelIndex < numSuperpixels; superpixelIndex++) {
+			int start = offsets[superpixelIndex];
+			int end = offsets[superpixelIndex + 1];
+			if (start == end) {
+				continue;
+			}
 
-				for (int pixelIndex = 0; pixelIndex < superpixelBandData.length(); pixelIndex++) {
-					double p = superpixelBandData.getDouble(pixelIndex);
-					if (p != 5000) {
-						int bin = (int) Math.floor((p - min) / (max - min) * (NUM_BINS - 1));
-						histogram[bin] += 1;
-						countp += 1;
-					}
-				}
+			double min = Double.POSITIVE_INFINITY;
+			double max = Double.NEGATIVE_INFINITY;
+			for (int i = start; i < end; i++) {
+				double p = this.getValue(bandIndex, pixels[i]);
+				min = Math.min(min, p);
+				max = Math.max(max, p);
+			}
 
-				// Normalize histogram into probability distribution
-				for (int i = 0; i < NUM_BINS; i++) {
-					histogramStatistics[bandIndex][superpixelIndex][i] = (double) histogram[i] / (double) (countp);
-				}
-			});
-		});
-	}
+			double[] histogram = histograms[superpixelIndex];
+			for (int i = start; i < end; i++) {
+				int bin = max == min ? 0 : (int) Math.floor((this.getValue(bandIndex, pixels[i]) - min) / (max - min) * (NUM_BINS - 1));
+				histogram[bin] += 1;
+			}
 
-	private boolean[][] getSuperpixelMask(int superpixelIndex) {
-		boolean[][] mask = new boolean[superpixelSegmentation.length][superpixelSegmentation[0].length];
-		for (int i = 0; i < superpixelSegmentation.length; i++) {
-			for (int j = 0; j < superpixelSegmentation[i].length; j++) {
-				mask[i][j] = superpixelSegmentation[i][j] == superpixelIndex;
+			// Normalize histogram into probability distribution
+			int count = end - start;
+			for (int i = 0; i < NUM_BINS; i++) {
+				histogram[i] /= count;
 			}
 		}
-		return mask;
+		return histograms;
 	}
 
 
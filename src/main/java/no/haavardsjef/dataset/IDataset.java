@@ -13,4 +13,6 @@ public interface IDataset {
 	public Bounds getBounds();
 
 	double distance(DistanceMeasure distanceMeasure, int index1, int index2);
+
+	BandDistanceMatrix getDistanceMatrix(DistanceMeasure distanceMeasure);
 }
@@ -1,5 +1,6 @@
 package no.haavardsjef.experiments;
 
+import no.haavardsjef.metrics.MetricsRegistry;
 import no.haavardsjef.pso.PSOParams;
 import org.mlflow.api.proto.Service;
 import org.mlflow.tracking.MlflowClient;
@@ -79,6 +80,15 @@ public class MLFlow {
 		}
 	}
 
+	/**
+	 * Logs every timer and counter of the registry as metrics of the active run
+	 *
+	 * @param registry The registry to log, e.g. Metrics.getRegistry()
+	 */
+	public void logMetrics(MetricsRegistry registry) {
+		registry.toMetricMap().forEach(this::logMetric);
+	}
+
 	/**
 	 * Ends the active run
 	 */
@@ -3,6 +3,7 @@ package no.haavardsjef.experiments.plan;
 import lombok.extern.log4j.Log4j2;
 import no.haavardsjef.classification.ClassificationResult;
 import no.haavardsjef.classification.SVMClassifier;
+import no.haavardsjef.classification.SVMParameterCache;
 import no.haavardsjef.dataset.Dataset;
 import no.haavardsjef.dataset.DatasetName;
 import no.haavardsjef.experiments.IExperiment;
@@ -13,6 +14,7 @@ import org.mlflow.api.proto.Service;
 import org.mlflow.tracking.MlflowClient;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -21,6 +23,8 @@ import java.util.List;
 public class NoisyBandExperimentV2 implements IExperiment {
 	@Override
 	public void runExperiment() throws IOException {
+		// Band subsets that were tuned before, also in earlier runs of the experiment, reuse their SVM parameters
+		SVMParameterCache parameterCache = new SVMParameterCache(Path.of("svm_parameter_cache.tsv"), SVMParameterCache.ReusePolicy.TUNE_ONCE);
 
 		MlflowClient client = new MlflowClient("http://35.185.118.215:8080/");
 
@@ -110,6 +114,7 @@ public class NoisyBandExperimentV2 implements IExperiment {
 
 				// Evaluate using SVMClassifier
 				SVMClassifier svmClassifier = new SVMClassifier(ds);
+				svmClassifier.setParameterCache(parameterCache);
 				int numClassificationRuns = 10;
 				mlFlow.logParam("ClassificationRuns", String.valueOf(numClassificationRuns));
 
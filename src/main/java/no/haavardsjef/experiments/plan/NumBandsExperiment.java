@@ -2,13 +2,15 @@ package no.haavardsjef.experiments.plan;
 
 import no.haavardsjef.classification.ClassificationResult;
 import no.haavardsjef.classification.SVMClassifier;
+import no.haavardsjef.classification.SVMParameterCache;
 import no.haavardsjef.dataset.Dataset;
 import no.haavardsjef.dataset.DatasetName;
 import no.haavardsjef.experiments.IExperiment;
 import no.haavardsjef.experiments.MLFlow;
 import no.haavardsjef.fcm.utility.ClusterRepresentatives;
 import no.haavardsjef.fcm.FuzzyCMeans;
-import no.haavardsjef.objectivefunctions.IObjectiveFunction;
+import no.haavardsjef.metrics.Metrics;
+import no.haavardsjef.objectivefunctions.CachedObjectiveFunction;
 import no.haavardsjef.pso.PSOParams;
 import no.haavardsjef.pso.Particle;
 import no.haavardsjef.pso.SwarmPopulation;
@@ -17,6 +19,7 @@ import no.haavardsjef.utility.DistanceMeasure;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.List;
 
 /**
@@ -26,10 +29,12 @@ import java.util.List;
 public class NumBandsExperiment implements IExperiment {
 	@Override
 	public void runExperiment() throws IOException {
+		// Band subsets that were tuned before, also in earlier runs of the experiment, reuse their SVM parameters
+		SVMParameterCache parameterCache = new SVMParameterCache(Path.of("svm_parameter_cache.tsv"), SVMParameterCache.ReusePolicy.TUNE_ONCE);
 		Dataset dataset = new Dataset(DatasetName.indian_pines);
 		dataset.setupSuperpixelContainer();
 		double fuzziness = 2;
-		IObjectiveFunction objectiveFunction = new FuzzyCMeans(dataset, fuzziness, DistanceMeasure.PIXEL_EUCLIDEAN);
+		CachedObjectiveFunction objectiveFunction = new CachedObjectiveFunction(new FuzzyCMeans(dataset, fuzziness, DistanceMeasure.PIXEL_EUCLIDEAN), 100_000);
 		Bounds bounds = dataset.getBounds();
 
 		// Initialize new MLflow client to connect to local MLflow server
@@ -41,6 +46,7 @@ public class NumBandsExperiment implements IExperiment {
 
 
 		for (int i = 16; i < 30; i += 1) {
+			Metrics.getRegistry().reset();
 
 			long startTime = System.currentTimeMillis();
 			int numberOfBandsToSelect = i;
@@ -54,6 +60,7 @@ public class NumBandsExperiment implements IExperiment {
 			List<Integer> clusterCentroids = solution.getDiscretePositionSorted();
 			long endTime = System.currentTimeMillis();
 			long duration = (endTime - startTime) / 1000;
+			System.out.println("Fitness cache hit rate: " + objectiveFunction.getHitRate());
 
 			// TODO: Select representative bands from clusters based on findings from preliminary experiments
 
@@ -90,10 +97,12 @@ public class NumBandsExperiment implements IExperiment {
 
 				// Log metrics
 				SVMClassifier svmClassifier = new SVMClassifier(dataset);
+				svmClassifier.setParameterCache(parameterCache);
 				ClassificationResult result = svmClassifier.evaluate(selectedBands, numClassificationRuns);
 				DescriptiveStatistics stats = result.getOverallAccuracy();
 				mlFlow.logMetric("accuracy", stats.getMean());
 				mlFlow.logMetric("std", stats.getStandardDeviation());
+				mlFlow.logMetrics(Metrics.getRegistry());
 
 				// End run
 				mlFlow.endRun();
@@ -101,6 +110,7 @@ public class NumBandsExperiment implements IExperiment {
 
 			}
 
+			System.out.println(Metrics.getRegistry().getSummary());
 
 		}
 	}
@@ -1,6 +1,7 @@
 package no.haavardsjef.experiments.plan;
 
 import no.haavardsjef.classification.McNemarsTest;
+import no.haavardsjef.classification.PairedComparison;
 import no.haavardsjef.classification.SVMClassifier;
 import no.haavardsjef.dataset.Dataset;
 import no.haavardsjef.dataset.DatasetName;
@@ -16,29 +17,38 @@ public class StatisticalSignificanceExperiment implements IExperiment {
 
 		Dataset ds = new Dataset(DatasetName.indian_pines);
 
-		List<Integer> selectedBands1 = Arrays.asList(22, 47, 35, 81, 175, 115, 116, 117, 99, 132);
-		List<Integer> selectedBands2 = Arrays.asList(36, 67, 35, 81, 30, 94, 80, 116, 127, 141);
+		List<List<Integer>> bandSubsets = List.of(
+				Arrays.asList(22, 47, 35, 81, 175, 115, 116, 117, 99, 132),
+				Arrays.asList(36, 67, 35, 81, 30, 94, 80, 116, 127, 141));
 
 		SVMClassifier svm = new SVMClassifier(ds);
 
 		for (int r = 0; r < 10; r++) {
 
 
-			int[][] contingencyTable = svm.compareBandSubsets(selectedBands1, selectedBands2, 0.1, false);
+			// All subsets are trained once, on the same split, and compared pairwise
+			PairedComparison comparison = svm.compareBandSubsets(bandSubsets, 0.1, false);
 
-			// Print the contingency table
-			for (int[] row : contingencyTable) {
-				for (int i : row) {
-					System.out.print(i + " ");
-				}
-				System.out.println();
-			}
+			for (int i = 0; i < bandSubsets.size(); i++) {
+				for (int j = i + 1; j < bandSubsets.size(); j++) {
+					int[][] contingencyTable = comparison.getContingencyTable(i, j);
+					System.out.println("Subset " + i + " vs subset " + j + ":");
+
+					// Print the contingency table
+					for (int[] row : contingencyTable) {
+						for (int k : row) {
+							System.out.print(k + " ");
+						}
+						System.out.println();
+					}
 
-			double Z = McNemarsTest.computeTestStatistic(contingencyTable);
-			double pValue = McNemarsTest.computePValue(contingencyTable);
+					double Z = McNemarsTest.computeTestStatistic(contingencyTable);
+					double pValue = McNemarsTest.computePValue(contingencyTable);
 
-			System.out.println("Z: " + Z);
-			System.out.println("P-value: " + pValue);
+					System.out.println("Z: " + Z);
+					System.out.println("P-value: " + pValue);
+				}
+			}
 		}
 
 
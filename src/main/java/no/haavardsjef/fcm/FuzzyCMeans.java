@@ -1,9 +1,11 @@
 package no.haavardsjef.fcm;
 
 import lombok.extern.log4j.Log4j2;
+import no.haavardsjef.dataset.BandDistanceMatrix;
 import no.haavardsjef.dataset.Dataset;
 import no.haavardsjef.dataset.DatasetName;
 import no.haavardsjef.dataset.IDataset;
+import no.haavardsjef.metrics.Metrics;
 import no.haavardsjef.objectivefunctions.IObjectiveFunction;
 import no.haavardsjef.utility.DistanceMeasure;
 import org.nd4j.linalg.api.ndarray.INDArray;
@@ -12,10 +14,8 @@ import org.nd4j.linalg.ops.transforms.Transforms;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.stream.IntStream;
 
 @Log4j2
@@ -24,6 +24,7 @@ public class FuzzyCMeans implements IObjectiveFunction {
 	private final IDataset dataset;
 	private final INDArray data;
 	private final double fuzziness;
+	private final ThreadLocal<double[]> scratch = ThreadLocal.withInitial(() -> new double[0]);
 
 	public FuzzyCMeans(IDataset dataset, double fuzziness, DistanceMeasure distanceMeasure) {
 		this.dataset = dataset;
@@ -78,11 +79,12 @@ public class FuzzyCMeans implements IObjectiveFunction {
 		int numClusters = candidateCentroids.size();
 		INDArray candidateMembershipMatrix = Nd4j.zeros(numDataPoints, numClusters);
 		double epsilon = 1e-9;
+		BandDistanceMatrix distanceMatrix = dataset.getDistanceMatrix(this.distanceMeasure);
 
 		IntStream.range(0, numDataPoints).parallel().forEach(i -> {
 			INDArray distances = Nd4j.create(numClusters);
 			for (int j = 0; j < numClusters; j++) {
-				double distance = dataset.distance(this.distanceMeasure, i, candidateCentroids.get(j));
+				double distance = distanceMatrix.get(i, candidateCentroids.get(j));
 				distances.putScalar(j, distance);
 			}
 			INDArray distancesPow = Transforms.pow(distances.add(epsilon), -2.0 / (fuzziness - 1));
@@ -94,41 +96,62 @@ public class FuzzyCMeans implements IObjectiveFunction {
 		return candidateMembershipMatrix;
 	}
 
+	/**
+	 * Calculates the FCM objective for the given cluster centroids. Memberships are computed and consumed
+	 * band by band in a single pass, using a scratch buffer owned by the calling thread, so no
+	 * membership matrix is materialised. The result equals summing u_ij^m * d_ij over calculateMembershipMatrix.
+	 *
+	 * @param candidateCentroids The band indices of the cluster centroids.
+	 * @return The value of the objective function, lower is better.
+	 */
 	public double objectiveFunction(List<Integer> candidateCentroids) {
-		INDArray candidateMembershipMatrix = calculateMembershipMatrix(candidateCentroids);
-
+		BandDistanceMatrix distanceMatrix = dataset.getDistanceMatrix(this.distanceMeasure);
 		int numDataPoints = (int) data.size(0);
 		int numClusters = candidateCentroids.size();
+		double epsilon = 1e-9;
+		double exponent = -2.0 / (fuzziness - 1);
 
-		AtomicReferenceArray<Double> atomicArray = new AtomicReferenceArray<>(numDataPoints * numClusters);
-		IntStream.range(0, numDataPoints).parallel().forEach(i -> {
-			IntStream.range(0, numClusters).parallel().forEach(j -> {
-				double membership = Math.pow(candidateMembershipMatrix.getDouble(i, j), fuzziness);
-				double distance = dataset.distance(this.distanceMeasure, i, candidateCentroids.get(j));
-				double product = membership * distance;
-				atomicArray.set(i * numClusters + j, product);
-			});
-		});
+		int[] centroids = new int[numClusters];
+		for (int j = 0; j < numClusters; j++) {
+			centroids[j] = candidateCentroids.get(j);
+		}
+		double[] distancesPow = scratchBuffer(numClusters);
 
 		double sum = 0.0;
-		for (int i = 0; i < atomicArray.length(); i++) {
-			sum += atomicArray.get(i);
+		for (int i = 0; i < numDataPoints; i++) {
+			double distancesPowSum = 0.0;
+			for (int j = 0; j < numClusters; j++) {
+				double distancePow = Math.pow(distanceMatrix.get(i, centroids[j]) + epsilon, exponent);
+				distancesPow[j] = distancePow;
+				distancesPowSum += distancePow;
+			}
+			for (int j = 0; j < numClusters; j++) {
+				double membership = Math.pow(distancesPow[j] / distancesPowSum, fuzziness);
+				sum += membership * distanceMatrix.get(i, centroids[j]);
+			}
 		}
 
 		return sum;
 	}
 
+	/**
+	 * Gets the scratch buffer of the calling thread, growing it if it is too small.
+	 */
+	private double[] scratchBuffer(int minLength) {
+		double[] buffer = scratch.get();
+		if (buffer.length < minLength) {
+			buffer = new double[minLength];
+			scratch.set(buffer);
+		}
+		return buffer;
+	}
+
 	@Override
 	public float evaluate(List<Integer> candidateSolution) {
-		long startTime = System.currentTimeMillis();
-		float result = 0.0f;
-		// Check if we have already evaluated this solution
-		result = (float) this.objectiveFunction(candidateSolution);
-
-
-		long stopTime = System.currentTimeMillis();
-		long elapsedTime = stopTime - startTime;
-//		log.info("Evaluated solution with cluster centers: " + Arrays.toString(candidateSolution.toArray()) + " with fitness: " + result + " in " + elapsedTime + "ms");
+		long startTime = System.nanoTime();
+		// Repeated solutions are memoized by wrapping this in a CachedObjectiveFunction
+		float result = (float) this.objectiveFunction(candidateSolution);
+		Metrics.timer(Metrics.FITNESS_EVALUATION).recordSince(startTime);
 		return result;
 	}
 }
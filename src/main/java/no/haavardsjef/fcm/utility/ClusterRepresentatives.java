@@ -1,6 +1,8 @@
 package no.haavardsjef.fcm.utility;
 
+import no.haavardsjef.dataset.BandDistanceMatrix;
 import no.haavardsjef.dataset.Dataset;
+import no.haavardsjef.utility.DistanceMeasure;
 import org.nd4j.linalg.api.ndarray.INDArray;
 
 import java.util.ArrayList;
@@ -41,6 +43,7 @@ public class ClusterRepresentatives {
 
 	public void hardClusterBands(List<Integer> clusterCentroids) {
 		int numClusters = clusterCentroids.size();
+		BandDistanceMatrix distanceMatrix = dataset.getDistanceMatrix(DistanceMeasure.PIXEL_EUCLIDEAN);
 
 		for (int i = 0; i < numClusters; i++) {
 			clusters.add(new ArrayList<>());
@@ -52,7 +55,7 @@ public class ClusterRepresentatives {
 			double closestDistance = Double.MAX_VALUE;
 
 			for (int j = 0; j < numClusters; j++) {
-				double distance = dataset.euclideanDistance(i, clusterCentroids.get(j));
+				double distance = distanceMatrix.get(i, clusterCentroids.get(j));
 				if (distance < closestDistance) {
 					closestCentroid = j;
 					closestDistance = distance;
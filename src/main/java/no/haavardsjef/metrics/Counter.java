@@ -0,0 +1,40 @@
+package no.haavardsjef.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count, safe to increment from multiple threads.
+ */
+public class Counter {
+
+	private final String name;
+	private final boolean enabled;
+	private final LongAdder count = new LongAdder();
+
+	Counter(String name, boolean enabled) {
+		this.name = name;
+		this.enabled = enabled;
+	}
+
+	public void increment() {
+		add(1);
+	}
+
+	public void add(long amount) {
+		if (enabled) {
+			count.add(amount);
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	void reset() {
+		count.reset();
+	}
+}
@@ -0,0 +1,41 @@
+package no.haavardsjef.metrics;
+
+/**
+ * Global access point for the metrics of the hot paths. The registry can be replaced, e.g. with
+ * {@link MetricsRegistry#disabled()} to turn recording off, or with a fresh registry per experiment.
+ */
+public final class Metrics {
+
+	public static final String DATASET_LOAD = "dataset.load";
+	public static final String SUPERPIXEL_SETUP = "superpixel.setup";
+	public static final String DISTANCE_PRECOMPUTE = "distance.precompute";
+	public static final String FITNESS_EVALUATION = "fitness.evaluation";
+	public static final String PSO_ITERATION = "pso.iteration";
+	public static final String SVM_GRID_SEARCH = "svm.gridSearch";
+	public static final String SVM_TRAINING = "svm.training";
+	public static final String SVM_PREDICTION = "svm.prediction";
+	public static final String SVM_PREDICTED_PIXELS = "svm.predictedPixels";
+	public static final String LINEAR_TRAINING = "linear.training";
+	public static final String LINEAR_PREDICTION = "linear.prediction";
+
+	private static volatile MetricsRegistry registry = new MetricsRegistry();
+
+	private Metrics() {
+	}
+
+	public static MetricsRegistry getRegistry() {
+		return registry;
+	}
+
+	public static void setRegistry(MetricsRegistry registry) {
+		Metrics.registry = registry;
+	}
+
+	public static Timer timer(String name) {
+		return registry.timer(name);
+	}
+
+	public static Counter counter(String name) {
+		return registry.counter(name);
+	}
+}
@@ -0,0 +1,110 @@
+package no.haavardsjef.metrics;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Holds the timers and counters of a run, created on first use and looked up by name.
+ */
+public class MetricsRegistry {
+
+	private final boolean enabled;
+	private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+	private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+
+	public MetricsRegistry() {
+		this(true);
+	}
+
+	private MetricsRegistry(boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	/**
+	 * @return A registry whose timers and counters record nothing, to switch metrics off without touching the call sites.
+	 */
+	public static MetricsRegistry disabled() {
+		return new MetricsRegistry(false);
+	}
+
+	public Timer timer(String name) {
+		return timers.computeIfAbsent(name, n -> new Timer(n, enabled));
+	}
+
+	public Counter counter(String name) {
+		return counters.computeIfAbsent(name, n -> new Counter(n, enabled));
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Resets every timer and counter, e.g. between runs of an experiment.
+	 */
+	public void reset() {
+		timers.values().forEach(Timer::reset);
+		counters.values().forEach(Counter::reset);
+	}
+
+	/**
+	 * Flattens the recorded values into metrics, durations in milliseconds, suitable for logging to MLFlow.
+	 *
+	 * @return The metrics, sorted by name.
+	 */
+	public Map<String, Double> toMetricMap() {
+		Map<String, Double> metrics = new LinkedHashMap<>();
+		for (Timer timer : new TreeMap<>(timers).values()) {
+			if (timer.getCount() == 0) {
+				continue;
+			}
+			String name = timer.getName();
+			metrics.put(name + ".count", (double) timer.getCount());
+			metrics.put(name + ".total_ms", timer.getTotalNanos() / 1e6);
+			metrics.put(name + ".mean_ms", timer.getMeanNanos() / 1e6);
+			metrics.put(name + ".p50_ms", timer.getPercentileNanos(50) / 1e6);
+			metrics.put(name + ".p99_ms", timer.getPercentileNanos(99) / 1e6);
+			metrics.put(name + ".max_ms", timer.getMaxNanos() / 1e6);
+		}
+		for (Counter counter : new TreeMap<>(counters).values()) {
+			metrics.put(counter.getName(), (double) counter.getCount());
+		}
+		return metrics;
+	}
+
+	/**
+	 * @return A table of all timers and counters, with durations in milliseconds.
+	 */
+	public String getSummary() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-28s %10s %12s %10s %10s %10s %10s%n", "timer", "count", "total", "mean", "p50", "p99", "max"));
+		for (Timer timer : new TreeMap<>(timers).values()) {
+			if (timer.getCount() == 0) {
+				continue;
+			}
+			sb.append(String.format("%-28s %10d %12.1f %10.3f %10.3f %10.3f %10.3f%n", timer.getName(), timer.getCount(),
+					timer.getTotalNanos() / 1e6, timer.getMeanNanos() / 1e6, timer.getPercentileNanos(50) / 1e6,
+					timer.getPercentileNanos(99) / 1e6, timer.getMaxNanos() / 1e6));
+		}
+		for (Counter counter : new TreeMap<>(counters).values()) {
+			sb.append(String.format("%-28s %10d%n", counter.getName(), counter.getCount()));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Writes the metrics to a csv file with the columns metric and value.
+	 *
+	 * @param path The file to write to, overwritten if it exists.
+	 */
+	public void writeCsv(Path path) throws IOException {
+		StringBuilder sb = new StringBuilder("metric,value\n");
+		toMetricMap().forEach((name, value) -> sb.append(name).append(',').append(value).append('\n'));
+		Files.writeString(path, sb.toString());
+	}
+}
@@ -0,0 +1,110 @@
+package no.haavardsjef.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records durations in a histogram of power-of-two nanosecond buckets. Recording is lock-free and cheap enough
+ * to use on every fitness evaluation, percentiles are therefore only accurate to within a factor of two.
+ */
+public class Timer {
+
+	private static final int NUM_BUCKETS = 64;
+
+	private final String name;
+	private final boolean enabled;
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+	private final AtomicLongArray buckets = new AtomicLongArray(NUM_BUCKETS);
+
+	Timer(String name, boolean enabled) {
+		this.name = name;
+		this.enabled = enabled;
+	}
+
+	/**
+	 * Records a duration.
+	 *
+	 * @param nanos The duration in nanoseconds.
+	 */
+	public void record(long nanos) {
+		if (!enabled) {
+			return;
+		}
+		nanos = Math.max(nanos, 0);
+		count.increment();
+		totalNanos.add(nanos);
+		buckets.incrementAndGet(NUM_BUCKETS - 1 - Long.numberOfLeadingZeros(nanos | 1));
+		long max = maxNanos.get();
+		while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+			max = maxNanos.get();
+		}
+	}
+
+	/**
+	 * Records the time elapsed since the given start time.
+	 *
+	 * @param startNanos The start time, from System.nanoTime().
+	 * @return The elapsed time in nanoseconds.
+	 */
+	public long recordSince(long startNanos) {
+		long elapsed = System.nanoTime() - startNanos;
+		record(elapsed);
+		return elapsed;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getTotalNanos() {
+		return totalNanos.sum();
+	}
+
+	public long getMaxNanos() {
+		return maxNanos.get();
+	}
+
+	public double getMeanNanos() {
+		long count = getCount();
+		return count == 0 ? 0.0 : (double) getTotalNanos() / count;
+	}
+
+	/**
+	 * Estimates a percentile from the histogram, as the upper bound of the bucket containing it.
+	 *
+	 * @param percentile The percentile, in [0, 100].
+	 * @return The estimated duration in nanoseconds, never more than the maximum recorded duration.
+	 */
+	public long getPercentileNanos(double percentile) {
+		long count = getCount();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile / 100.0 * count);
+		long seen = 0;
+		for (int b = 0; b < NUM_BUCKETS; b++) {
+			seen += buckets.get(b);
+			if (seen >= rank && seen > 0) {
+				long upperBound = b >= NUM_BUCKETS - 2 ? Long.MAX_VALUE : (2L << b) - 1;
+				return Math.min(upperBound, getMaxNanos());
+			}
+		}
+		return getMaxNanos();
+	}
+
+	void reset() {
+		count.reset();
+		totalNanos.reset();
+		maxNanos.set(0);
+		for (int b = 0; b < NUM_BUCKETS; b++) {
+			buckets.set(b, 0);
+		}
+	}
+}
@@ -0,0 +1,127 @@
+package no.haavardsjef.objectivefunctions;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decorator that memoizes the fitness of candidate solutions, so that converged particles re-visiting
+ * the same band subset do not trigger a new evaluation. Solutions are keyed on the set of selected indices,
+ * the wrapped objective function must therefore not depend on the order of the indices.
+ * The least recently used entries are evicted once the cache is full. Safe to use from multiple threads.
+ */
+public class CachedObjectiveFunction implements IObjectiveFunction {
+
+	private final IObjectiveFunction objectiveFunction;
+	private final Map<SolutionKey, Float> cache;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * @param objectiveFunction The objective function to memoize.
+	 * @param maxSize           The maximum number of solutions to keep.
+	 */
+	public CachedObjectiveFunction(IObjectiveFunction objectiveFunction, int maxSize) {
+		this.objectiveFunction = objectiveFunction;
+		this.cache = new LinkedHashMap<>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<SolutionKey, Float> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	@Override
+	public float evaluate(List<Integer> candidateSolution) {
+		SolutionKey key = SolutionKey.of(candidateSolution);
+		if (key == null) {
+			// Duplicate indices can not be represented as a set, so evaluate without caching
+			misses.incrementAndGet();
+			return objectiveFunction.evaluate(candidateSolution);
+		}
+
+		Float cached;
+		synchronized (cache) {
+			cached = cache.get(key);
+		}
+		if (cached != null) {
+			hits.incrementAndGet();
+			return cached;
+		}
+
+		// Evaluated outside the lock, two threads may occasionally compute the same solution
+		misses.incrementAndGet();
+		float fitness = objectiveFunction.evaluate(candidateSolution);
+		synchronized (cache) {
+			cache.put(key, fitness);
+		}
+		return fitness;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public double getHitRate() {
+		long total = getHits() + getMisses();
+		return total == 0 ? 0.0 : (double) getHits() / total;
+	}
+
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	public void clear() {
+		synchronized (cache) {
+			cache.clear();
+		}
+		hits.set(0);
+		misses.set(0);
+	}
+
+	/**
+	 * A set of non-negative indices packed as a bitmask.
+	 */
+	private record SolutionKey(long[] words) {
+
+		/**
+		 * @return The key for the solution, or null if it contains duplicate indices.
+		 */
+		static SolutionKey of(List<Integer> solution) {
+			int maxIndex = 0;
+			for (int index : solution) {
+				if (index < 0) {
+					throw new IllegalArgumentException("Negative index in candidate solution: " + index);
+				}
+				maxIndex = Math.max(maxIndex, index);
+			}
+			long[] words = new long[(maxIndex >> 6) + 1];
+			for (int index : solution) {
+				long bit = 1L << index;
+				if ((words[index >> 6] & bit) != 0) {
+					return null;
+				}
+				words[index >> 6] |= bit;
+			}
+			return new SolutionKey(words);
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof SolutionKey other && Arrays.equals(words, other.words);
+		}
+
+		@Override
+		public int hashCode() {
+			return Arrays.hashCode(words);
+		}
+	}
+}
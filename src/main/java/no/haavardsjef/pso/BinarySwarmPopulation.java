@@ -0,0 +1,201 @@
+package no.haavardsjef.pso;
+
+import lombok.extern.log4j.Log4j2;
+import no.haavardsjef.metrics.Metrics;
+import no.haavardsjef.objectivefunctions.IObjectiveFunction;
+import no.haavardsjef.utility.Bounds;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Binary PSO with a cardinality constraint, working directly on band sets instead of rounded continuous positions.
+ * Every particle is a bitmask over all bands in the bounds with exactly numSelected bits set, and a velocity per band.
+ * After a velocity update, the particle samples numSelected bands without replacement, with probability weights
+ * exponential in their velocities, so positions never contain duplicates and need no repair.
+ * <p>
+ * Offers the same constructors as {@link SwarmPopulation}. The optimize method differs from that of SwarmPopulation, as it
+ * has no plot parameter. The returned particle holds the selected band indices as its position.
+ */
+@Log4j2
+public class BinarySwarmPopulation {
+
+	private static final float MAX_VELOCITY = 4.0f;
+
+	public int numParticles;
+	public int numSelected;
+	public int numBands;
+	public long[] globalBestPosition; // Bitmask of the selected bands, relative to the lower bound
+	public float globalBestFitness;
+	public int numIterationsRan;
+
+	public IObjectiveFunction objectiveFunction;
+	private final Bounds bounds;
+	private final long seed;
+	private final int numWords;
+	private final float[] velocities; // shape: [numParticles * numBands], row-major
+	private final long[] positions; // shape: [numParticles * numWords], row-major bitmasks
+	private final long[] bestPositions; // shape: [numParticles * numWords], row-major bitmasks
+	private final float[] bestFitnesses;
+	private final int[] steps;
+	private final ParticleEvaluator evaluator = new ParticleEvaluator();
+
+	public BinarySwarmPopulation(int numParticles, int numSelected, Bounds bounds, IObjectiveFunction objectiveFunction) {
+		this(numParticles, numSelected, bounds, objectiveFunction, new Random().nextLong());
+	}
+
+	/**
+	 * Creates a swarm where every particle selects a random set of bands. All random numbers are derived from the seed.
+	 */
+	public BinarySwarmPopulation(int numParticles, int numSelected, Bounds bounds, IObjectiveFunction objectiveFunction, long seed) {
+		this.numParticles = numParticles;
+		this.numSelected = numSelected;
+		this.numBands = bounds.upper() - bounds.lower() + 1;
+		if (numSelected > numBands) {
+			throw new IllegalArgumentException("Cannot select " + numSelected + " of " + numBands + " bands");
+		}
+		this.bounds = bounds;
+		this.objectiveFunction = objectiveFunction;
+		this.seed = seed;
+		this.numWords = (numBands + 63) >> 6;
+		this.velocities = new float[numParticles * numBands];
+		this.positions = new long[numParticles * numWords];
+		this.bestPositions = new long[numParticles * numWords];
+		this.bestFitnesses = new float[numParticles];
+		Arrays.fill(this.bestFitnesses, Float.POSITIVE_INFINITY);
+		this.globalBestFitness = Float.POSITIVE_INFINITY;
+		this.steps = new int[numParticles];
+
+		// With all velocities 0, every band is equally likely to be selected
+		long[] keys = new long[numBands];
+		for (int p = 0; p < numParticles; p++) {
+			sampleBands(p, SwarmState.randomStream(seed, p, steps[p]++), keys);
+			System.arraycopy(positions, p * numWords, bestPositions, p * numWords, numWords);
+		}
+	}
+
+	public Particle optimize(int numIterations, float w, float c1, float c2, boolean earlyStopping) {
+		log.info("Finding solution with {} of {} bands, binary PSO.", numSelected, numBands);
+		int iterationsSinceImprovement = 0;
+		long startTime = System.nanoTime();
+		for (int i = 0; i < numIterations; i++) {
+			if (++iterationsSinceImprovement > 15 && earlyStopping) {
+				log.info("No improvement in 15 iterations. Stopping optimization.");
+				break;
+			}
+			long iterationStartTime = System.nanoTime();
+			moveAll(w, c1, c2);
+			List<List<Integer>> bands = new ArrayList<>(numParticles);
+			for (int p = 0; p < numParticles; p++) {
+				bands.add(toBands(positions, p * numWords));
+			}
+			float[] fitnesses = evaluator.evaluateAll(objectiveFunction, bands);
+
+			// Reduce in particle order, so the bests do not depend on which evaluation finished first
+			for (int p = 0; p < numParticles; p++) {
+				if (fitnesses[p] < bestFitnesses[p]) {
+					bestFitnesses[p] = fitnesses[p];
+					System.arraycopy(positions, p * numWords, bestPositions, p * numWords, numWords);
+				}
+				if (fitnesses[p] < globalBestFitness) {
+					iterationsSinceImprovement = 0;
+					globalBestFitness = fitnesses[p];
+					globalBestPosition = Arrays.copyOfRange(positions, p * numWords, (p + 1) * numWords);
+				}
+			}
+			this.numIterationsRan = i + 1;
+			Metrics.timer(Metrics.PSO_ITERATION).recordSince(iterationStartTime);
+		}
+		log.info("Optimization took {} s, global best fitness {}", (System.nanoTime() - startTime) / 1_000_000_000, globalBestFitness);
+
+		// Without any evaluation there is no global best, and the particle has no position, as in SwarmPopulation
+		float[] position = null;
+		if (globalBestPosition != null) {
+			List<Integer> bestBands = toBands(globalBestPosition, 0);
+			position = new float[bestBands.size()];
+			for (int i = 0; i < position.length; i++) {
+				position[i] = bestBands.get(i);
+			}
+			log.info("Global best bands: {}", bestBands);
+		}
+		return new Particle(position, this.bounds, this.objectiveFunction);
+	}
+
+	/**
+	 * Updates the velocity of every band of every particle, pulling it up if the band is in the personal or global best
+	 * set and down if it is not, and samples new band sets from the velocities. Unlike the classic binary PSO update
+	 * towards (best - current), a band that already agrees with both bests keeps its velocity instead of decaying to the
+	 * neutral weight, so the sampler does not forget it.
+	 */
+	private void moveAll(float w, float c1, float c2) {
+		long[] keys = new long[numBands];
+		for (int p = 0; p < numParticles; p++) {
+			SplittableRandom random = SwarmState.randomStream(seed, p, steps[p]++);
+			// Without a global best, the social term pulls towards the personal best instead
+			long[] social = globalBestPosition != null ? globalBestPosition : bestPositions;
+			int socialOffset = globalBestPosition != null ? 0 : p * numWords;
+			int positionOffset = p * numWords;
+			int velocityOffset = p * numBands;
+			for (int b = 0; b < numBands; b++) {
+				int word = b >> 6;
+				long mask = 1L << b;
+				int personal = (bestPositions[positionOffset + word] & mask) != 0 ? 1 : -1;
+				int global = (social[socialOffset + word] & mask) != 0 ? 1 : -1;
+				float velocity = w * velocities[velocityOffset + b]
+						+ c1 * random.nextFloat() * personal
+						+ c2 * random.nextFloat() * global;
+				velocities[velocityOffset + b] = Math.max(-MAX_VELOCITY, Math.min(MAX_VELOCITY, velocity));
+			}
+			sampleBands(p, random, keys);
+		}
+	}
+
+	/**
+	 * Samples numSelected distinct bands for a particle, weighting each band by exp(velocity), using the
+	 * Efraimidis-Spirakis method: every band gets the key -ln(u) / weight, and the bands with the smallest keys are selected.
+	 *
+	 * @param keys Scratch space of numBands values.
+	 */
+	private void sampleBands(int particle, SplittableRandom random, long[] keys) {
+		int velocityOffset = particle * numBands;
+		for (int b = 0; b < numBands; b++) {
+			float key = (float) (-Math.log(1.0 - random.nextDouble()) * Math.exp(-velocities[velocityOffset + b]));
+			// Non-negative floats order like their bit patterns, so key and band sort together as one long
+			keys[b] = ((long) Float.floatToIntBits(key) << 32) | b;
+		}
+		Arrays.sort(keys);
+
+		int positionOffset = particle * numWords;
+		Arrays.fill(positions, positionOffset, positionOffset + numWords, 0L);
+		for (int i = 0; i < numSelected; i++) {
+			int band = (int) keys[i];
+			positions[positionOffset + (band >> 6)] |= 1L << band;
+		}
+	}
+
+	/**
+	 * @return The sorted band indices of the bitmask starting at the offset.
+	 */
+	private List<Integer> toBands(long[] bitmasks, int offset) {
+		List<Integer> bands = new ArrayList<>(numSelected);
+		for (int word = 0; word < numWords; word++) {
+			long bits = bitmasks[offset + word];
+			while (bits != 0) {
+				bands.add(bounds.lower() + (word << 6) + Long.numberOfTrailingZeros(bits));
+				bits &= bits - 1;
+			}
+		}
+		return bands;
+	}
+
+	/**
+	 * Sets the executor the particles are evaluated on, null evaluates sequentially. See {@link ParticleEvaluator#setExecutor}.
+	 */
+	public void setEvaluationExecutor(ExecutorService evaluationExecutor) {
+		this.evaluator.setExecutor(evaluationExecutor);
+	}
+}
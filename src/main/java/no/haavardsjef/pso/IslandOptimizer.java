@@ -0,0 +1,146 @@
+package no.haavardsjef.pso;
+
+import lombok.extern.log4j.Log4j2;
+import no.haavardsjef.objectivefunctions.CachedObjectiveFunction;
+import no.haavardsjef.objectivefunctions.IObjectiveFunction;
+import no.haavardsjef.utility.Bounds;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Island model PSO: several swarms, each with its own parameters and number of iterations, optimize in parallel threads,
+ * and every few iterations the best particle of each swarm migrates to the next swarm in a ring, replacing its worst
+ * particle. All islands evaluate through one shared fitness cache, and share the objective function, and thereby its
+ * dataset and distance matrix. Each island evaluates its particles sequentially in its own thread, so the parallelism
+ * is limited to the number of islands. Migration happens at the same points regardless of thread timing, so a seeded
+ * run is reproducible.
+ */
+@Log4j2
+public class IslandOptimizer {
+
+	private static final int FITNESS_CACHE_SIZE = 100_000;
+
+	private final List<PSOParams> islandParams;
+	private final List<SwarmPopulation> islands;
+	private final CachedObjectiveFunction fitnessCache;
+	private final Bounds bounds;
+
+	/**
+	 * @param islandParams      The parameters of each island, one swarm is created per entry. All islands must select the
+	 *                          same number of bands, as particles migrate between them.
+	 * @param bounds            The bounds of the search space.
+	 * @param objectiveFunction The objective function, must be thread-safe.
+	 * @param seed              The seed the seeds of the islands are derived from.
+	 */
+	public IslandOptimizer(List<PSOParams> islandParams, Bounds bounds, IObjectiveFunction objectiveFunction, long seed) {
+		int numBands = islandParams.get(0).numBands;
+		for (PSOParams params : islandParams) {
+			if (params.numBands != numBands) {
+				throw new IllegalArgumentException("All islands must select the same number of bands, got " + params.numBands + " and " + numBands);
+			}
+		}
+		this.islandParams = islandParams;
+		this.bounds = bounds;
+		this.fitnessCache = objectiveFunction instanceof CachedObjectiveFunction cached ? cached : new CachedObjectiveFunction(objectiveFunction, FITNESS_CACHE_SIZE);
+		this.islands = new ArrayList<>(islandParams.size());
+		Random seedGenerator = new Random(seed);
+		for (PSOParams params : islandParams) {
+			SwarmPopulation island = new SwarmPopulation(params.numParticles, params.numBands, bounds, this.fitnessCache, seedGenerator.nextLong());
+			// Every island runs in its own thread, and evaluates its particles in that thread
+			island.setEvaluationExecutor(null);
+			this.islands.add(island);
+		}
+	}
+
+	/**
+	 * Optimizes every island for the number of iterations in its parameters, migrating between the islands every
+	 * migrationInterval iterations. Islands that have run all their iterations still receive migrants.
+	 *
+	 * @return The best particle found by any island.
+	 */
+	public Particle optimize(int migrationInterval) {
+		int numIterations = islandParams.stream().mapToInt(params -> params.numIterations).max().getAsInt();
+		log.info("Optimizing {} islands for up to {} iterations, migrating every {} iterations", islands.size(), numIterations, migrationInterval);
+		long startTime = System.nanoTime();
+		ExecutorService executor = Executors.newFixedThreadPool(islands.size(), runnable -> {
+			Thread thread = new Thread(runnable, "pso-island");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			for (int iteration = 0; iteration < numIterations; iteration += migrationInterval) {
+				List<Callable<Void>> tasks = new ArrayList<>(islands.size());
+				for (int i = 0; i < islands.size(); i++) {
+					SwarmPopulation island = islands.get(i);
+					PSOParams params = islandParams.get(i);
+					int epochIterations = Math.min(migrationInterval, params.numIterations - iteration);
+					if (epochIterations > 0) {
+						tasks.add(() -> {
+							island.runIterations(epochIterations, params.w, params.c1, params.c2);
+							return null;
+						});
+					}
+				}
+				for (Future<Void> result : executor.invokeAll(tasks)) {
+					result.get();
+				}
+				if (iteration + migrationInterval < numIterations) {
+					migrate();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while optimizing islands", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Island optimization failed", e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+
+		SwarmPopulation best = islands.get(0);
+		for (SwarmPopulation island : islands) {
+			if (island.globalBestFitness < best.globalBestFitness) {
+				best = island;
+			}
+		}
+		long duration = (System.nanoTime() - startTime) / 1_000_000;
+		log.info("Island optimization took {} ms, best fitness {}, fitness cache hit rate {}", duration, best.globalBestFitness, fitnessCache.getHitRate());
+		log.info("Best position: {}", Arrays.toString(best.globalBestPosition));
+		return new Particle(best.globalBestPosition, bounds, fitnessCache);
+	}
+
+	/**
+	 * Sends the best particle of every island to the next island in the ring. The emigrants are collected before any
+	 * island is changed, so an island never passes on a particle it just received.
+	 */
+	private void migrate() {
+		int numIslands = islands.size();
+		float[][] emigrants = new float[numIslands][];
+		float[] emigrantFitnesses = new float[numIslands];
+		for (int i = 0; i < numIslands; i++) {
+			emigrants[i] = islands.get(i).globalBestPosition;
+			emigrantFitnesses[i] = islands.get(i).globalBestFitness;
+		}
+		for (int i = 0; i < numIslands; i++) {
+			if (emigrants[i] != null) {
+				islands.get((i + 1) % numIslands).immigrate(emigrants[i], emigrantFitnesses[i]);
+			}
+		}
+	}
+
+	public List<SwarmPopulation> getIslands() {
+		return islands;
+	}
+
+	public CachedObjectiveFunction getFitnessCache() {
+		return fitnessCache;
+	}
+}
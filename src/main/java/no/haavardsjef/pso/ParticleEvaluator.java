@@ -0,0 +1,68 @@
+package no.haavardsjef.pso;
+
+import no.haavardsjef.objectivefunctions.IObjectiveFunction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates the positions of all particles of an iteration, shared by the continuous and the binary swarm.
+ */
+class ParticleEvaluator {
+
+	private ExecutorService executor = ForkJoinPool.commonPool();
+
+	/**
+	 * Sets the executor used to evaluate the particles of an iteration concurrently, e.g. a ForkJoinPool
+	 * or a virtual thread executor. Defaults to the common ForkJoinPool, null evaluates sequentially.
+	 * The objective function must be thread-safe when an executor is used.
+	 */
+	void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * @return The executor, or null if particles are evaluated sequentially.
+	 */
+	ExecutorService getExecutor() {
+		return executor;
+	}
+
+	/**
+	 * Evaluates every position, concurrently on the executor, or in the calling thread if it is null.
+	 *
+	 * @param positions The sorted band indices of each particle.
+	 * @return The fitness of each particle, in particle order.
+	 */
+	float[] evaluateAll(IObjectiveFunction objectiveFunction, List<List<Integer>> positions) {
+		float[] fitnesses = new float[positions.size()];
+		if (this.executor == null) {
+			for (int p = 0; p < fitnesses.length; p++) {
+				fitnesses[p] = objectiveFunction.evaluate(positions.get(p));
+			}
+			return fitnesses;
+		}
+
+		List<Callable<Float>> tasks = new ArrayList<>(positions.size());
+		for (List<Integer> bands : positions) {
+			tasks.add(() -> objectiveFunction.evaluate(bands));
+		}
+		try {
+			List<Future<Float>> results = this.executor.invokeAll(tasks);
+			for (int p = 0; p < fitnesses.length; p++) {
+				fitnesses[p] = results.get(p).get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while evaluating particles", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("Failed to evaluate particle", e.getCause());
+		}
+		return fitnesses;
+	}
+}
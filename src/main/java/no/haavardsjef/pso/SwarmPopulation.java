@@ -1,82 +1,110 @@
 package no.haavardsjef.pso;
 
 import lombok.extern.log4j.Log4j2;
+import no.haavardsjef.metrics.Metrics;
 import no.haavardsjef.objectivefunctions.IObjectiveFunction;
 import no.haavardsjef.utility.Bounds;
 import no.haavardsjef.vizualisation.PlotLine;
 import no.haavardsjef.vizualisation.Visualizations;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 
 @Log4j2
 public class SwarmPopulation {
 
-	public ArrayList<Particle> particles;
+	private static final int CHECKPOINT_MAGIC = 0x50534f43; // "PSOC"
+	private static final int CHECKPOINT_VERSION = 2;
+
+	private SwarmState swarm;
 	public int numParticles;
 	public int numDimensions;
 	public float[] globalBestPosition;
 	public float globalBestFitness;
 	private final Bounds bounds;
 	public int numIterationsRan;
+	private int iterationsSinceImprovement;
 
 	public IObjectiveFunction objectiveFunction;
 	private Particle solution;
+	private final ParticleEvaluator evaluator = new ParticleEvaluator();
+	private Path checkpointPath;
+	private int checkpointInterval;
+	private String checkpointRunId;
 
 	public SwarmPopulation(int numParticles, int numDimensions, Bounds bounds, IObjectiveFunction objectiveFunction) {
+		this(numParticles, numDimensions, bounds, objectiveFunction, new Random().nextLong());
+	}
+
+	/**
+	 * Creates a swarm whose random numbers are all derived from the seed, see {@link SwarmState},
+	 * so that optimization is reproducible regardless of the order particles are evaluated in.
+	 */
+	public SwarmPopulation(int numParticles, int numDimensions, Bounds bounds, IObjectiveFunction objectiveFunction, long seed) {
 		this.numParticles = numParticles;
 		this.numDimensions = numDimensions;
-		this.particles = new ArrayList<>(numParticles);
-		this.globalBestPosition = new float[numDimensions];
+		this.swarm = new SwarmState(numParticles, numDimensions, bounds, seed);
+		this.globalBestPosition = null;
 		this.globalBestFitness = Float.POSITIVE_INFINITY;
 		this.bounds = bounds;
 		this.objectiveFunction = objectiveFunction;
-
-
-		for (int i = 0; i < numParticles; i++) {
-			Particle particle = new Particle(numDimensions, bounds, this.objectiveFunction);
-			particle.initializeRandomly();
-			particles.add(particle);
-		}
 	}
 
 	public Particle optimize(int numIterations, float w, float c1, float c2, boolean plot, boolean earlyStopping) {
 		System.out.println("Finding solution with " + numDimensions + " cluster centers.");
-		AtomicInteger iterationsSinceImprovement = new AtomicInteger();
+		this.iterationsSinceImprovement = 0;
 		long startTime = System.nanoTime();
 		List<Double> avgFitness = new ArrayList<Double>();
-		for (int i = 0; i < numIterations; i++) {
+		int firstIteration = 0;
+		if (this.checkpointPath != null && Files.exists(this.checkpointPath)) {
+			firstIteration = this.restoreCheckpoint(numIterations, w, c1, c2);
+			log.info("Resuming optimization from iteration {} of {}, global best fitness {}", firstIteration, numIterations, globalBestFitness);
+		}
+		for (int i = firstIteration; i < numIterations; i++) {
 			System.out.print("Iteration: " + i + " / " + numIterations + " \r");
-			iterationsSinceImprovement.getAndIncrement();
+			this.iterationsSinceImprovement++;
 
-			if (iterationsSinceImprovement.get() > 15 && earlyStopping) {
+			if (this.iterationsSinceImprovement > 15 && earlyStopping) {
 				log.info("No improvement in 15 iterations. Stopping optimization.");
 				break;
 			}
 
 			if (plot && this.numDimensions == 2) {
-				Visualizations.plotSwarm(this.particles, i, this.bounds);
+				Visualizations.plotSwarm(this.getParticles(), i, this.bounds);
 			}
-			float totalFitness = particles.stream().map(particle -> {
-				particle.updateVelocity(globalBestPosition, w, c1, c2);
-				particle.updatePosition();
-
-				float p_fitness = particle.evaluate();
-
-				if (p_fitness < globalBestFitness) {
-					iterationsSinceImprovement.set(0);
-					globalBestFitness = particle.getFitness();
-					globalBestPosition = particle.getPosition().clone();
-				}
-				return particle.getFitness();
-			}).reduce(0f, Float::sum);
-			avgFitness.add((double) (totalFitness / this.numParticles));
+			avgFitness.add((double) this.iterate(w, c1, c2));
 			this.numIterationsRan = i + 1;
+			if (this.checkpointPath != null && (i + 1) % this.checkpointInterval == 0) {
+				this.writeCheckpoint(i + 1, numIterations, w, c1, c2);
+			}
+		}
+		if (this.checkpointPath != null) {
+			// The run is complete, so a later run with the same path starts from scratch instead of returning this result
+			this.deleteCheckpoint();
 		}
 		if (plot && this.numDimensions == 2) {
-			Visualizations.plotSwarm(this.particles, numIterations, this.bounds);
+			Visualizations.plotSwarm(this.getParticles(), numIterations, this.bounds);
 		}
 		long endTime = System.nanoTime();
 		long duration = (endTime - startTime) / 1000000000;
@@ -92,4 +120,287 @@ public class SwarmPopulation {
 		this.solution = new Particle(globalBestPosition, this.bounds, this.objectiveFunction);
 		return solution;
 	}
+
+	/**
+	 * Runs iterations from the current state of the swarm, without the output, plotting, early stopping and checkpointing
+	 * of {@link #optimize}, e.g. for islands that optimize in epochs between migrations. Adds to numIterationsRan.
+	 */
+	void runIterations(int numIterations, float w, float c1, float c2) {
+		for (int i = 0; i < numIterations; i++) {
+			this.iterate(w, c1, c2);
+			this.numIterationsRan++;
+		}
+	}
+
+	/**
+	 * Moves and evaluates all particles once, and updates the global best.
+	 *
+	 * @return The average fitness of the particles.
+	 */
+	private float iterate(float w, float c1, float c2) {
+		long iterationStartTime = System.nanoTime();
+		float[] fitnesses = this.moveAndEvaluateParticles(w, c1, c2);
+
+		// Reduce in particle order, so the global best does not depend on which evaluation finished first
+		float totalFitness = 0f;
+		for (int p = 0; p < this.numParticles; p++) {
+			totalFitness += fitnesses[p];
+			if (fitnesses[p] < globalBestFitness) {
+				this.iterationsSinceImprovement = 0;
+				globalBestFitness = fitnesses[p];
+				globalBestPosition = swarm.getPosition(p);
+			}
+		}
+		Metrics.timer(Metrics.PSO_ITERATION).recordSince(iterationStartTime);
+		return totalFitness / this.numParticles;
+	}
+
+	/**
+	 * Optimizes without a barrier between iterations: every particle moves towards the latest known global best as soon
+	 * as its own previous evaluation has finished. One worker per thread of the evaluation executor takes the particle
+	 * that has waited longest from a shared queue, moves and evaluates it, and puts it back, so cores are not left idle
+	 * waiting for the most expensive evaluation of an iteration.
+	 * The result depends on the order evaluations finish in, unless the evaluation executor is null, in which case the
+	 * particles are moved in turn in the calling thread.
+	 *
+	 * @param maxEvaluations The total number of fitness evaluations, over all particles.
+	 */
+	public Particle optimizeAsynchronously(int maxEvaluations, float w, float c1, float c2) {
+		log.info("Finding solution with {} cluster centers, asynchronously with {} evaluations", numDimensions, maxEvaluations);
+		long startTime = System.nanoTime();
+
+		ExecutorService executor = this.evaluator.getExecutor();
+		if (executor == null) {
+			for (int e = 0; e < maxEvaluations; e++) {
+				moveAndEvaluate(e % this.numParticles, w, c1, c2);
+			}
+		} else {
+			// With no more workers than particles, a worker always finds a particle that is not in flight
+			int parallelism = executor instanceof ForkJoinPool forkJoinPool ? forkJoinPool.getParallelism() : Runtime.getRuntime().availableProcessors();
+			int numWorkers = Math.min(parallelism, this.numParticles);
+			ConcurrentLinkedQueue<Integer> waitingParticles = new ConcurrentLinkedQueue<>();
+			for (int p = 0; p < this.numParticles; p++) {
+				waitingParticles.add(p);
+			}
+			AtomicInteger evaluationBudget = new AtomicInteger(maxEvaluations);
+
+			List<Callable<Void>> workers = new ArrayList<>(numWorkers);
+			for (int t = 0; t < numWorkers; t++) {
+				workers.add(() -> {
+					while (evaluationBudget.getAndDecrement() > 0) {
+						int particle = waitingParticles.remove();
+						moveAndEvaluate(particle, w, c1, c2);
+						waitingParticles.add(particle);
+					}
+					return null;
+				});
+			}
+			try {
+				for (Future<Void> result : executor.invokeAll(workers)) {
+					result.get();
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while evaluating particles", e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException("Failed to evaluate particle", e.getCause());
+			}
+		}
+		this.numIterationsRan = maxEvaluations / this.numParticles;
+
+		long duration = (System.nanoTime() - startTime) / 1000000000;
+		System.out.println("Elapsed time for optimization: " + duration + "s");
+		System.out.println("Global best fitness: " + globalBestFitness);
+		System.out.println("Global best position: " + Arrays.toString(globalBestPosition));
+		this.solution = new Particle(globalBestPosition, this.bounds, this.objectiveFunction);
+		return solution;
+	}
+
+	/**
+	 * Moves a single particle towards the current global best, evaluates it, and updates the personal and global best.
+	 * Only one thread may move a given particle at a time.
+	 */
+	private void moveAndEvaluate(int particle, float w, float c1, float c2) {
+		float[] globalBest;
+		synchronized (this) {
+			globalBest = this.globalBestPosition;
+		}
+		swarm.move(particle, globalBest, w, c1, c2);
+		float fitness = objectiveFunction.evaluate(swarm.getDiscretePositionSorted(particle));
+		synchronized (this) {
+			swarm.updateFitness(particle, fitness);
+			if (fitness < globalBestFitness) {
+				globalBestFitness = fitness;
+				globalBestPosition = swarm.getPosition(particle);
+			}
+		}
+	}
+
+	/**
+	 * Moves every particle towards the global best of the previous iteration, then evaluates them.
+	 * Particles are evaluated concurrently on the evaluation executor, or in the calling thread if it is null.
+	 *
+	 * @return The fitness of each particle, in particle order.
+	 */
+	private float[] moveAndEvaluateParticles(float w, float c1, float c2) {
+		swarm.moveAll(this.globalBestPosition, w, c1, c2);
+		List<List<Integer>> positions = new ArrayList<>(this.numParticles);
+		for (int p = 0; p < this.numParticles; p++) {
+			positions.add(swarm.getDiscretePositionSorted(p));
+		}
+		float[] fitnesses = this.evaluator.evaluateAll(objectiveFunction, positions);
+
+		for (int p = 0; p < this.numParticles; p++) {
+			swarm.updateFitness(p, fitnesses[p]);
+		}
+		return fitnesses;
+	}
+
+	/**
+	 * @return A particle at the current position of every particle of the swarm, e.g. for plotting.
+	 */
+	public List<Particle> getParticles() {
+		List<Particle> particles = new ArrayList<>(this.numParticles);
+		for (int p = 0; p < this.numParticles; p++) {
+			particles.add(new Particle(swarm.getPosition(p), this.bounds, this.objectiveFunction));
+		}
+		return particles;
+	}
+
+	/**
+	 * Replaces the particle with the worst personal best by a particle from another swarm, e.g. for migration between islands.
+	 *
+	 * @param position The position of the immigrating particle.
+	 * @param fitness  The fitness at the position.
+	 */
+	public synchronized void immigrate(float[] position, float fitness) {
+		swarm.replaceWorst(position, fitness);
+		if (fitness < globalBestFitness) {
+			globalBestFitness = fitness;
+			globalBestPosition = position.clone();
+		}
+	}
+
+	/**
+	 * Makes {@link #optimize} save the complete swarm state, including the random state, every checkpointInterval
+	 * iterations, and resume from the saved state if the file already exists, e.g. after the JVM was killed. A resumed
+	 * run finds the same solution as an uninterrupted run. The checkpoint is deleted when optimize returns normally.
+	 * The checkpoint is written to a temporary file, forced to disk, and atomically replaces the previous one, so a crash
+	 * while writing leaves the previous checkpoint intact.
+	 * <p>
+	 * A checkpoint is only resumed by a run with the same run identifier, iterations and parameters. The seed is part of
+	 * the saved random state, so a swarm created without a seed, e.g. after a restart, continues with the seed of the
+	 * checkpoint. The objective function is not stored, so the run identifier should name everything it depends on,
+	 * e.g. the dataset and distance.
+	 *
+	 * @param checkpointPath     The checkpoint file, or null to disable checkpointing.
+	 * @param checkpointInterval The number of iterations between checkpoints.
+	 * @param runId              Identifies the optimization the checkpoint belongs to.
+	 */
+	public void setCheckpoint(Path checkpointPath, int checkpointInterval, String runId) {
+		if (checkpointInterval < 1) {
+			throw new IllegalArgumentException("Checkpoint interval must be positive, was " + checkpointInterval);
+		}
+		this.checkpointPath = checkpointPath;
+		this.checkpointInterval = checkpointInterval;
+		this.checkpointRunId = runId;
+	}
+
+	/**
+	 * Writes the swarm, the global best and the progress of the current optimization to the checkpoint file.
+	 * A failed write is logged, as losing one checkpoint should not abort a long optimization.
+	 */
+	private void writeCheckpoint(int completedIterations, int numIterations, float w, float c1, float c2) {
+		Path tempPath = this.checkpointPath.resolveSibling(this.checkpointPath.getFileName() + ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+				 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)))) {
+				out.writeInt(CHECKPOINT_MAGIC);
+				out.writeInt(CHECKPOINT_VERSION);
+				out.writeUTF(this.checkpointRunId);
+				out.writeInt(numIterations);
+				out.writeFloat(w);
+				out.writeFloat(c1);
+				out.writeFloat(c2);
+				out.writeInt(completedIterations);
+				out.writeInt(this.iterationsSinceImprovement);
+				out.writeFloat(this.globalBestFitness);
+				out.writeBoolean(this.globalBestPosition != null);
+				if (this.globalBestPosition != null) {
+					for (float value : this.globalBestPosition) {
+						out.writeFloat(value);
+					}
+				}
+				this.swarm.writeTo(out);
+				// Without forcing, the rename can reach the disk before the data, leaving a truncated checkpoint after a crash
+				out.flush();
+				channel.force(true);
+			}
+			Files.move(tempPath, this.checkpointPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.warn("Could not write PSO checkpoint to {}: {}", this.checkpointPath, e.getMessage());
+		}
+	}
+
+	/**
+	 * Replaces the swarm and the global best by those in the checkpoint file.
+	 *
+	 * @return The number of iterations completed when the checkpoint was written.
+	 */
+	private int restoreCheckpoint(int numIterations, float w, float c1, float c2) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.checkpointPath)))) {
+			if (in.readInt() != CHECKPOINT_MAGIC || in.readInt() != CHECKPOINT_VERSION) {
+				throw new IllegalStateException(this.checkpointPath + " is not a PSO checkpoint of version " + CHECKPOINT_VERSION);
+			}
+			String runId = in.readUTF();
+			int checkpointIterations = in.readInt();
+			float checkpointW = in.readFloat();
+			float checkpointC1 = in.readFloat();
+			float checkpointC2 = in.readFloat();
+			if (!runId.equals(this.checkpointRunId) || checkpointIterations != numIterations || checkpointW != w || checkpointC1 != c1 || checkpointC2 != c2) {
+				throw new IllegalStateException("Checkpoint " + this.checkpointPath + " belongs to run " + runId + " with " + checkpointIterations
+						+ " iterations, w = " + checkpointW + ", c1 = " + checkpointC1 + ", c2 = " + checkpointC2 + ", not to run " + this.checkpointRunId
+						+ " with " + numIterations + " iterations, w = " + w + ", c1 = " + c1 + ", c2 = " + c2);
+			}
+			int completedIterations = in.readInt();
+			int sinceImprovement = in.readInt();
+			float bestFitness = in.readFloat();
+			float[] bestPosition = null;
+			if (in.readBoolean()) {
+				bestPosition = new float[this.numDimensions];
+				for (int d = 0; d < this.numDimensions; d++) {
+					bestPosition[d] = in.readFloat();
+				}
+			}
+			SwarmState restored = SwarmState.readFrom(in);
+			if (restored.getNumParticles() != this.numParticles || restored.getNumDimensions() != this.numDimensions || !restored.getBounds().equals(this.bounds)) {
+				throw new IllegalStateException("Checkpoint " + this.checkpointPath + " has " + restored.getNumParticles() + " particles with "
+						+ restored.getNumDimensions() + " dimensions within " + restored.getBounds() + ", expected " + this.numParticles
+						+ " particles with " + this.numDimensions + " dimensions within " + this.bounds);
+			}
+			this.swarm = restored;
+			this.globalBestFitness = bestFitness;
+			this.globalBestPosition = bestPosition;
+			this.numIterationsRan = completedIterations;
+			this.iterationsSinceImprovement = sinceImprovement;
+			return completedIterations;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read PSO checkpoint from " + this.checkpointPath, e);
+		}
+	}
+
+	private void deleteCheckpoint() {
+		try {
+			Files.deleteIfExists(this.checkpointPath);
+		} catch (IOException e) {
+			log.warn("Could not delete PSO checkpoint {}: {}", this.checkpointPath, e.getMessage());
+		}
+	}
+
+	/**
+	 * Sets the executor the particles are evaluated on, null evaluates sequentially. See {@link ParticleEvaluator#setExecutor}.
+	 */
+	public void setEvaluationExecutor(ExecutorService evaluationExecutor) {
+		this.evaluator.setExecutor(evaluationExecutor);
+	}
 }
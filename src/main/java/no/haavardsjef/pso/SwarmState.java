@@ -0,0 +1,293 @@
+package no.haavardsjef.pso;
+
+import no.haavardsjef.utility.Bounds;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * The positions, velocities and personal bests of all particles of a swarm, each stored in one contiguous row-major
+ * matrix with a row per particle, so that the update step is a tight loop over primitive arrays.
+ * <p>
+ * Every move of a particle draws from its own SplittableRandom, derived from the seed, the particle index and the number
+ * of moves the particle made so far. The random numbers are thereby independent of the thread and the order particles
+ * are moved in, and the whole random state is the seed and the move counters.
+ */
+public class SwarmState {
+
+	private static final float MAX_VELOCITY_FRACTION = 0.1f;
+	private static final float INITIAL_VELOCITY_FRACTION = 0.2f;
+
+	final int numParticles;
+	final int numDimensions;
+	final Bounds bounds;
+	final long seed;
+	final float[] positions; // shape: [numParticles * numDimensions], row-major
+	final float[] velocities; // shape: [numParticles * numDimensions], row-major
+	final float[] bestPositions; // shape: [numParticles * numDimensions], row-major
+	final float[] fitnesses;
+	final float[] bestFitnesses;
+	final int[] steps; // Number of random streams drawn by each particle
+
+	/**
+	 * Creates a swarm with every particle at a random position, with a random velocity.
+	 */
+	public SwarmState(int numParticles, int numDimensions, Bounds bounds, long seed) {
+		if (numDimensions > bounds.upper() - bounds.lower() + 1) {
+			throw new IllegalArgumentException("Cannot place " + numDimensions + " unique positions within " + bounds);
+		}
+		this.numParticles = numParticles;
+		this.numDimensions = numDimensions;
+		this.bounds = bounds;
+		this.seed = seed;
+		this.positions = new float[numParticles * numDimensions];
+		this.velocities = new float[numParticles * numDimensions];
+		this.bestPositions = new float[numParticles * numDimensions];
+		// Fitness starts as infinity, so that the first evaluation will always improve it.
+		this.fitnesses = new float[numParticles];
+		this.bestFitnesses = new float[numParticles];
+		Arrays.fill(this.fitnesses, Float.POSITIVE_INFINITY);
+		Arrays.fill(this.bestFitnesses, Float.POSITIVE_INFINITY);
+		this.steps = new int[numParticles];
+
+		float range = bounds.upper() - bounds.lower();
+		for (int p = 0; p < numParticles; p++) {
+			SplittableRandom random = nextRandom(p);
+			int offset = p * numDimensions;
+			for (int d = offset; d < offset + numDimensions; d++) {
+				positions[d] = random.nextFloat() * range + bounds.lower();
+				velocities[d] = (-1.0f + 2 * random.nextFloat()) * range * INITIAL_VELOCITY_FRACTION;
+			}
+			repair(p, random, newBitset());
+			// Until the particle is evaluated, its personal best is where it started
+			System.arraycopy(positions, offset, bestPositions, offset, numDimensions);
+		}
+	}
+
+	/**
+	 * Moves every particle towards its personal best and the global best, clamping velocities to a tenth of the bounds
+	 * and positions to the bounds, and repairs positions rounding to the same value.
+	 *
+	 * @param globalBest The global best position, or null if no particle was evaluated yet.
+	 */
+	public void moveAll(float[] globalBest, float w, float c1, float c2) {
+		long[] used = newBitset();
+		for (int p = 0; p < numParticles; p++) {
+			move(p, globalBest, w, c1, c2, used);
+		}
+	}
+
+	/**
+	 * Moves a single particle, see {@link #moveAll}. Different particles may be moved concurrently.
+	 */
+	public void move(int particle, float[] globalBest, float w, float c1, float c2) {
+		move(particle, globalBest, w, c1, c2, newBitset());
+	}
+
+	private void move(int particle, float[] globalBest, float w, float c1, float c2, long[] used) {
+		SplittableRandom random = nextRandom(particle);
+		int offset = particle * numDimensions;
+		float lower = bounds.lower();
+		float upper = bounds.upper();
+		float maxVelocity = (upper - lower) * MAX_VELOCITY_FRACTION;
+		// Without a global best, the social term pulls towards the personal best instead
+		float[] social = globalBest != null ? globalBest : bestPositions;
+		int socialOffset = globalBest != null ? 0 : offset;
+
+		for (int d = 0; d < numDimensions; d++) {
+			int i = offset + d;
+			float position = positions[i];
+			float velocity = w * velocities[i]
+					+ c1 * random.nextFloat() * (bestPositions[i] - position)
+					+ c2 * random.nextFloat() * (social[socialOffset + d] - position);
+			velocity = Math.max(-maxVelocity, Math.min(maxVelocity, velocity));
+			velocities[i] = velocity;
+			positions[i] = Math.max(lower, Math.min(upper, position + velocity));
+		}
+		repair(particle, random, used);
+	}
+
+	/**
+	 * The FCM objective function inherently discourages selecting duplicate bands as cluster centers.
+	 * However, this problem might still occur when the number of selected bands is high. This violates
+	 * the problem constraint of selecting exactly $k$ unique bands. To prevent this, SPPF employs a repair
+	 * mechanism that detects and corrects these violations by replacing duplicate selected bands with
+	 * randomly selected new band indices. The rounded values in use are tracked in a bitset.
+	 *
+	 * @param used A bitset covering the bounds, cleared before it is returned.
+	 */
+	private void repair(int particle, SplittableRandom random, long[] used) {
+		int offset = particle * numDimensions;
+		int lower = bounds.lower();
+		float range = bounds.upper() - lower;
+		for (int i = offset; i < offset + numDimensions; i++) {
+			int bit = Math.round(positions[i]) - lower;
+			while ((used[bit >> 6] & (1L << bit)) != 0) {
+				positions[i] = random.nextFloat() * range + lower;
+				bit = Math.round(positions[i]) - lower;
+			}
+			used[bit >> 6] |= 1L << bit;
+		}
+		for (int i = offset; i < offset + numDimensions; i++) {
+			int bit = Math.round(positions[i]) - lower;
+			used[bit >> 6] = 0L;
+		}
+	}
+
+	/**
+	 * Records the fitness of the current position of a particle, and updates its personal best if it improved.
+	 *
+	 * @return Whether the personal best improved.
+	 */
+	public boolean updateFitness(int particle, float fitness) {
+		fitnesses[particle] = fitness;
+		if (fitness < bestFitnesses[particle]) {
+			bestFitnesses[particle] = fitness;
+			System.arraycopy(positions, particle * numDimensions, bestPositions, particle * numDimensions, numDimensions);
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Replaces the particle with the worst personal best by a particle at the given position, keeping its velocity.
+	 *
+	 * @param position The position of the new particle.
+	 * @param fitness  The fitness at the position.
+	 * @return The index of the replaced particle.
+	 */
+	public int replaceWorst(float[] position, float fitness) {
+		int worst = 0;
+		for (int p = 1; p < numParticles; p++) {
+			if (bestFitnesses[p] > bestFitnesses[worst]) {
+				worst = p;
+			}
+		}
+		System.arraycopy(position, 0, positions, worst * numDimensions, numDimensions);
+		System.arraycopy(position, 0, bestPositions, worst * numDimensions, numDimensions);
+		fitnesses[worst] = fitness;
+		bestFitnesses[worst] = fitness;
+		return worst;
+	}
+
+	/**
+	 * @return The current position of the particle, rounded to band indices and sorted.
+	 */
+	public List<Integer> getDiscretePositionSorted(int particle) {
+		int[] discretePosition = new int[numDimensions];
+		int offset = particle * numDimensions;
+		for (int d = 0; d < numDimensions; d++) {
+			discretePosition[d] = Math.round(positions[offset + d]);
+		}
+		Arrays.sort(discretePosition);
+		List<Integer> sorted = new ArrayList<>(numDimensions);
+		for (int band : discretePosition) {
+			sorted.add(band);
+		}
+		return sorted;
+	}
+
+	/**
+	 * @return A copy of the current position of the particle.
+	 */
+	public float[] getPosition(int particle) {
+		return Arrays.copyOfRange(positions, particle * numDimensions, (particle + 1) * numDimensions);
+	}
+
+	public float getFitness(int particle) {
+		return fitnesses[particle];
+	}
+
+	public int getNumParticles() {
+		return numParticles;
+	}
+
+	public int getNumDimensions() {
+		return numDimensions;
+	}
+
+	/**
+	 * Writes the complete state, including the random state, so that a swarm read back continues exactly as this one would.
+	 */
+	public void writeTo(DataOutputStream out) throws IOException {
+		out.writeLong(seed);
+		out.writeInt(numParticles);
+		out.writeInt(numDimensions);
+		out.writeInt(bounds.lower());
+		out.writeInt(bounds.upper());
+		writeFloats(out, positions);
+		writeFloats(out, velocities);
+		writeFloats(out, bestPositions);
+		writeFloats(out, fitnesses);
+		writeFloats(out, bestFitnesses);
+		for (int step : steps) {
+			out.writeInt(step);
+		}
+	}
+
+	/**
+	 * Reads a state written by {@link #writeTo}.
+	 */
+	public static SwarmState readFrom(DataInputStream in) throws IOException {
+		long seed = in.readLong();
+		int numParticles = in.readInt();
+		int numDimensions = in.readInt();
+		Bounds bounds = new Bounds(in.readInt(), in.readInt());
+		SwarmState state = new SwarmState(numParticles, numDimensions, bounds, seed);
+		readFloats(in, state.positions);
+		readFloats(in, state.velocities);
+		readFloats(in, state.bestPositions);
+		readFloats(in, state.fitnesses);
+		readFloats(in, state.bestFitnesses);
+		for (int p = 0; p < numParticles; p++) {
+			state.steps[p] = in.readInt();
+		}
+		return state;
+	}
+
+	private static void writeFloats(DataOutputStream out, float[] values) throws IOException {
+		for (float value : values) {
+			out.writeFloat(value);
+		}
+	}
+
+	private static void readFloats(DataInputStream in, float[] values) throws IOException {
+		for (int i = 0; i < values.length; i++) {
+			values[i] = in.readFloat();
+		}
+	}
+
+	public Bounds getBounds() {
+		return bounds;
+	}
+
+	private long[] newBitset() {
+		return new long[(bounds.upper() - bounds.lower()) / 64 + 1];
+	}
+
+	private SplittableRandom nextRandom(int particle) {
+		return randomStream(seed, particle, steps[particle]++);
+	}
+
+	/**
+	 * @return The random stream of the given step of a particle, independent of the streams of all other steps and particles.
+	 */
+	static SplittableRandom randomStream(long seed, int particle, int step) {
+		long counter = ((long) particle << 32) | (step & 0xFFFFFFFFL);
+		return new SplittableRandom(mix64(seed + mix64(counter)));
+	}
+
+	/**
+	 * Stafford's variant 13 of the MurmurHash3 finalizer, spreading consecutive counters over the whole seed space.
+	 */
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+}
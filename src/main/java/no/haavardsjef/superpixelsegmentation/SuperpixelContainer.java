@@ -10,7 +10,8 @@ import org.nd4j.linalg.indexing.NDArrayIndex;
 import java.io.BufferedWriter;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.util.*;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.stream.IntStream;
 
 /**
@@ -21,16 +22,36 @@ import java.util.stream.IntStream;
 public class SuperpixelContainer {
 
 	private INDArray superpixelMap;
+	private int[] superpixelLabels; // Superpixel index of each pixel, row-major
+	private int[] superpixelOffsets; // Start of each superpixel in superpixelPixels, length numSuperpixels + 1
+	private int[] superpixelPixels; // Pixel indices grouped by superpixel
 	private final INDArray data;
 	private INDArray superpixelMeans; // Shape: [numBands, numSuperpixels]
 	private double[][] superpixelMeansArray; // Shape: [numBands, numSuperpixels]
 	private int numSuperpixels;
+	private int imageWidth;
+	private int[][] neighbours; // Built on first use by getNeighbours
 
 	public SuperpixelContainer(INDArray data, int numSuperpixels, float spatialWeight) {
 		this.data = data;
 		this.generateSuperpixelMap(numSuperpixels, spatialWeight);
 	}
 
+	/**
+	 * Creates a container from an existing superpixel map, without pixel data, so only the map and neighbours are available.
+	 *
+	 * @param superpixelLabels The superpixel index of each pixel, row-major.
+	 * @param imageWidth       The width of the image.
+	 */
+	SuperpixelContainer(int[] superpixelLabels, int imageWidth) {
+		this.data = null;
+		this.superpixelLabels = superpixelLabels;
+		this.imageWidth = imageWidth;
+		this.superpixelMap = Nd4j.createFromArray(superpixelLabels).reshape(superpixelLabels.length / imageWidth, imageWidth);
+		this.numSuperpixels = Arrays.stream(superpixelLabels).max().getAsInt() + 1;
+		this.groupPixelsBySuperpixel();
+	}
+
 
 	/**
 	 * Converts data into planar image, and then uses boofCV to generate a superpixel map.
@@ -55,57 +76,82 @@ public class SuperpixelContainer {
 		log.info("Planar image created");
 		SuperpixelSegmentation superpixelSegmentation = new SuperpixelSegmentation();
 		int[] superpixelMap = superpixelSegmentation.segment(image, false, numSuperpixels, spatialWeight);
+		this.superpixelLabels = superpixelMap;
+		this.imageWidth = imageWidth;
 		this.superpixelMap = Nd4j.createFromArray(superpixelMap).reshape(imageHeight, imageWidth);
 		this.numSuperpixels = Arrays.stream(superpixelMap).max().getAsInt() + 1;
+		this.groupPixelsBySuperpixel();
 		log.info("Superpixel map created");
 		this.calculateSuperpixelMeans();
 	}
 
 
+	/**
+	 * Groups the pixel indices by superpixel with a counting sort, so that the pixels of superpixel s are
+	 * superpixelPixels[superpixelOffsets[s]] until superpixelPixels[superpixelOffsets[s + 1]].
+	 */
+	private void groupPixelsBySuperpixel() {
+		this.superpixelOffsets = new int[this.numSuperpixels + 1];
+		for (int label : this.superpixelLabels) {
+			this.superpixelOffsets[label + 1]++;
+		}
+		for (int s = 0; s < this.numSuperpixels; s++) {
+			this.superpixelOffsets[s + 1] += this.superpixelOffsets[s];
+		}
+
+		this.superpixelPixels = new int[this.superpixelLabels.length];
+		int[] next = Arrays.copyOf(this.superpixelOffsets, this.numSuperpixels);
+		for (int pixelIndex = 0; pixelIndex < this.superpixelLabels.length; pixelIndex++) {
+			this.superpixelPixels[next[this.superpixelLabels[pixelIndex]]++] = pixelIndex;
+		}
+	}
+
 	/**
 	 * Uses to superpixel map to calculate the mean value of each superpixel for each band,
-	 * and stores the result in superpixelMeans.
+	 * and stores the result in superpixelMeans. The pixel count of each superpixel is computed once,
+	 * after which every band is summed in a single pass over its pixels, with the bands processed in parallel.
 	 */
 	private void calculateSuperpixelMeans() {
 		log.info("Calculating superpixel means");
 		// Start timer
 		long startTime = System.currentTimeMillis();
-		this.superpixelMeans = Nd4j.zeros((int) this.data.shape()[0], this.numSuperpixels);
-		this.superpixelMeansArray = new double[(int) this.data.shape()[0]][this.numSuperpixels];
-		IntStream.range(0, (int) this.data.shape()[0]).forEach(band -> calculateMeanUsingMap(band));
+		int numBands = (int) this.data.shape()[0];
+		int numPixels = this.superpixelLabels.length;
+
+		int[] pixelCounts = new int[this.numSuperpixels];
+		for (int s = 0; s < this.numSuperpixels; s++) {
+			pixelCounts[s] = this.superpixelOffsets[s + 1] - this.superpixelOffsets[s];
+		}
+
+		this.superpixelMeansArray = new double[numBands][];
+		IntStream.range(0, numBands).parallel().forEach(band -> {
+			double[] bandData = this.data.get(NDArrayIndex.point(band), NDArrayIndex.all(), NDArrayIndex.all()).reshape(numPixels).toDoubleVector();
+			this.superpixelMeansArray[band] = calculateMeans(bandData, pixelCounts);
+		});
+		this.superpixelMeans = Nd4j.createFromArray(this.superpixelMeansArray);
 		// Stop timer
 		long endTime = System.currentTimeMillis();
 		log.info("Superpixel means calculated in {} ms", endTime - startTime);
 	}
 
 	/**
-	 * Calculates the mean value for every superpixel in the given band.
+	 * Calculates the mean value for every superpixel in a band.
 	 *
-	 * @param bandIndex The index of the band to calculate the mean for.
+	 * @param bandData    The pixel values of the band, row-major.
+	 * @param pixelCounts The number of pixels in each superpixel.
+	 * @return The mean value of each superpixel, 0 for empty superpixels.
 	 */
-	private void calculateMeanUsingMap(int bandIndex) {
-		INDArray bandData = this.data.get(NDArrayIndex.point(bandIndex), NDArrayIndex.all(), NDArrayIndex.all());
-		int numRows = bandData.rows();
-		int numCols = bandData.columns();
-
-		Map<Integer, List<Double>> superpixelPixelValues = new HashMap<>();
-
-		for (int row = 0; row < numRows; row++) {
-			for (int col = 0; col < numCols; col++) {
-				int superpixelIndex = this.superpixelMap.getInt(row, col);
-				double pixelValue = bandData.getDouble(row, col);
-
-				superpixelPixelValues.computeIfAbsent(superpixelIndex, k -> new ArrayList<>()).add(pixelValue);
-			}
+	private double[] calculateMeans(double[] bandData, int[] pixelCounts) {
+		double[] means = new double[this.numSuperpixels];
+		for (int i = 0; i < bandData.length; i++) {
+			means[this.superpixelLabels[i]] += bandData[i];
 		}
-
-		for (Map.Entry<Integer, List<Double>> entry : superpixelPixelValues.entrySet()) {
-			int superpixelIndex = entry.getKey();
-			List<Double> pixelValues = entry.getValue();
-			double mean = pixelValues.stream().mapToDouble(Double::doubleValue).average().orElse(0);
-			this.superpixelMeans.putScalar(bandIndex, superpixelIndex, mean);
-			this.superpixelMeansArray[bandIndex][superpixelIndex] = mean;
+		for (int superpixelIndex = 0; superpixelIndex < this.numSuperpixels; superpixelIndex++) {
+			if (pixelCounts[superpixelIndex] > 0) {
+				means[superpixelIndex] /= pixelCounts[superpixelIndex];
+			}
 		}
+		return means;
 	}
 
 
@@ -124,6 +170,39 @@ public class SuperpixelContainer {
 	}
 
 
+	/**
+	 * Gets the superpixels bordering each superpixel, i.e. sharing a horizontal or vertical pixel edge with it.
+	 *
+	 * @return The sorted neighbour indices of each superpixel, shape: [numSuperpixels][numNeighbours]. Must not be modified.
+	 */
+	public synchronized int[][] getNeighbours() {
+		if (this.neighbours == null) {
+			BitSet[] adjacent = new BitSet[this.numSuperpixels];
+			for (int s = 0; s < this.numSuperpixels; s++) {
+				adjacent[s] = new BitSet(this.numSuperpixels);
+			}
+			for (int pixelIndex = 0; pixelIndex < this.superpixelLabels.length; pixelIndex++) {
+				int label = this.superpixelLabels[pixelIndex];
+				int right = pixelIndex + 1;
+				int below = pixelIndex + this.imageWidth;
+				if (right % this.imageWidth != 0 && this.superpixelLabels[right] != label) {
+					adjacent[label].set(this.superpixelLabels[right]);
+					adjacent[this.superpixelLabels[right]].set(label);
+				}
+				if (below < this.superpixelLabels.length && this.superpixelLabels[below] != label) {
+					adjacent[label].set(this.superpixelLabels[below]);
+					adjacent[this.superpixelLabels[below]].set(label);
+				}
+			}
+			this.neighbours = new int[this.numSuperpixels][];
+			for (int s = 0; s < this.numSuperpixels; s++) {
+				this.neighbours[s] = adjacent[s].stream().toArray();
+			}
+		}
+		return this.neighbours;
+	}
+
+
 	public int getNumSuperpixels() {
 		return numSuperpixels;
 	}
@@ -153,9 +232,28 @@ public class SuperpixelContainer {
 	}
 
 	public int getSuperpixelIndex(int pixelIndex) {
-		int row = pixelIndex / this.superpixelMap.columns();
-		int col = pixelIndex % this.superpixelMap.columns();
-		return this.superpixelMap.getInt(row, col);
+		return this.superpixelLabels[pixelIndex];
+	}
+
+	/**
+	 * @return The start of each superpixel in getSuperpixelPixels(), with one extra entry holding the total number of pixels. Must not be modified.
+	 */
+	public int[] getSuperpixelOffsets() {
+		return this.superpixelOffsets;
+	}
+
+	/**
+	 * @return The row-major pixel indices, grouped by superpixel. Must not be modified.
+	 */
+	public int[] getSuperpixelPixels() {
+		return this.superpixelPixels;
+	}
+
+	/**
+	 * @return The superpixel index of each pixel, in row-major order. Must not be modified.
+	 */
+	public int[] getSuperpixelLabels() {
+		return this.superpixelLabels;
 	}
 
 
@@ -0,0 +1,225 @@
+package no.haavardsjef.utility;
+
+import lombok.extern.log4j.Log4j2;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A hyperspectral cube stored in a band-major binary file, memory-mapped so that every band can be read without copying.
+ * <p>
+ * Layout: a fixed size header (magic, version, data type, numBands, height, width), followed by one block per band
+ * with the pixels of that band in row-major order, little endian.
+ */
+@Log4j2
+public class CubeFile implements Closeable {
+
+	public static final String EXTENSION = ".cube";
+	private static final int MAGIC = 0x48534943; // "HSIC"
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 64;
+
+	public enum DataType {
+		FLOAT32(4),
+		FLOAT64(8);
+
+		public final int bytes;
+
+		DataType(int bytes) {
+			this.bytes = bytes;
+		}
+	}
+
+	private final FileChannel channel;
+	private final DataType dataType;
+	private final int numBands;
+	private final int height;
+	private final int width;
+	private final MappedByteBuffer[] bands;
+
+	private CubeFile(FileChannel channel, DataType dataType, int numBands, int height, int width) throws IOException {
+		this.channel = channel;
+		this.dataType = dataType;
+		this.numBands = numBands;
+		this.height = height;
+		this.width = width;
+		this.bands = new MappedByteBuffer[numBands];
+
+		// Each band is mapped separately, so cubes larger than 2GB can be mapped as well
+		long bandBytes = (long) height * width * dataType.bytes;
+		for (int b = 0; b < numBands; b++) {
+			this.bands[b] = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES + b * bandBytes, bandBytes);
+			this.bands[b].order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	/**
+	 * Opens and memory-maps a cube file.
+	 *
+	 * @param path The path to the cube file.
+	 * @return The opened cube, which must be closed when no longer in use.
+	 * @throws IOException if the file cannot be read or is not a cube file.
+	 */
+	public static CubeFile open(Path path) throws IOException {
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining() && channel.read(header) >= 0) {
+			}
+			header.flip();
+			if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) {
+				throw new IOException("Not a cube file: " + path);
+			}
+			int version = header.getInt();
+			if (version != VERSION) {
+				throw new IOException("Unsupported cube file version " + version + ": " + path);
+			}
+			DataType dataType = DataType.values()[header.getInt()];
+			int numBands = header.getInt();
+			int height = header.getInt();
+			int width = header.getInt();
+
+			long expectedSize = HEADER_BYTES + (long) numBands * height * width * dataType.bytes;
+			if (channel.size() != expectedSize) {
+				throw new IOException("Truncated cube file, expected " + expectedSize + " bytes but found " + channel.size() + ": " + path);
+			}
+			return new CubeFile(channel, dataType, numBands, height, width);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes a cube to a file. The file is written to a temporary file first and then moved into place,
+	 * so a partially written cube is never left behind.
+	 *
+	 * @param cube     The data, with shape [numBands][height][width].
+	 * @param dataType The data type to store the values as.
+	 * @param path     The path to write the cube file to.
+	 * @throws IOException if the file cannot be written.
+	 */
+	public static void write(double[][][] cube, DataType dataType, Path path) throws IOException {
+		int numBands = cube.length;
+		int height = cube[0].length;
+		int width = cube[0][0].length;
+
+		Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			header.putInt(MAGIC).putInt(VERSION).putInt(dataType.ordinal()).putInt(numBands).putInt(height).putInt(width);
+			header.rewind();
+			writeFully(channel, header);
+
+			ByteBuffer band = ByteBuffer.allocate(height * width * dataType.bytes).order(ByteOrder.LITTLE_ENDIAN);
+			for (double[][] bandData : cube) {
+				band.clear();
+				for (double[] row : bandData) {
+					for (double value : row) {
+						if (dataType == DataType.FLOAT32) {
+							band.putFloat((float) value);
+						} else {
+							band.putDouble(value);
+						}
+					}
+				}
+				band.flip();
+				writeFully(channel, band);
+			}
+		}
+		Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		log.info("Wrote {} cube with {} bands of {}x{} to {}", dataType, numBands, height, width, path);
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	/**
+	 * Gets a read-only view of the mapped band, positioned at the first pixel.
+	 *
+	 * @param bandIndex The index of the band.
+	 * @return A view of the band, with pixels in row-major order.
+	 */
+	public ByteBuffer getBand(int bandIndex) {
+		return this.bands[bandIndex].asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Gets the value of a pixel in a band.
+	 *
+	 * @param bandIndex  The index of the band.
+	 * @param pixelIndex The row-major index of the pixel.
+	 */
+	public double get(int bandIndex, int pixelIndex) {
+		if (dataType == DataType.FLOAT32) {
+			return this.bands[bandIndex].getFloat(pixelIndex * Float.BYTES);
+		}
+		return this.bands[bandIndex].getDouble(pixelIndex * Double.BYTES);
+	}
+
+	/**
+	 * Copies a band into the given array, starting at the given offset.
+	 */
+	public void readBand(int bandIndex, double[] destination, int offset) {
+		ByteBuffer band = getBand(bandIndex);
+		int numPixels = height * width;
+		if (dataType == DataType.FLOAT32) {
+			for (int i = 0; i < numPixels; i++) {
+				destination[offset + i] = band.getFloat(i * Float.BYTES);
+			}
+		} else {
+			band.asDoubleBuffer().get(destination, offset, numPixels);
+		}
+	}
+
+	/**
+	 * Copies a band into the given array, starting at the given offset.
+	 */
+	public void readBand(int bandIndex, float[] destination, int offset) {
+		ByteBuffer band = getBand(bandIndex);
+		int numPixels = height * width;
+		if (dataType == DataType.FLOAT64) {
+			for (int i = 0; i < numPixels; i++) {
+				destination[offset + i] = (float) band.getDouble(i * Double.BYTES);
+			}
+		} else {
+			band.asFloatBuffer().get(destination, offset, numPixels);
+		}
+	}
+
+	public DataType getDataType() {
+		return dataType;
+	}
+
+	public int getNumBands() {
+		return numBands;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getNumPixels() {
+		return height * width;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+}
@@ -1,11 +1,33 @@
 package no.haavardsjef.utility;
 
 public enum DistanceMeasure {
-	PIXEL_EUCLIDEAN,
-	SP_MEAN_EUCLIDEAN,
-	PIXEL_KL_DIVERGENCE,
-	SP_MEAN_KL_DIVERGENCE,
-	SP_MEAN_COR_COF,
-	SP_LEVEL_KL_DIVERGENCE_L1NORM,
-	SP_MEAN_DISJOINT
+	PIXEL_EUCLIDEAN(true, false),
+	SP_MEAN_EUCLIDEAN(true, true),
+	PIXEL_KL_DIVERGENCE(true, false),
+	SP_MEAN_KL_DIVERGENCE(true, true),
+	SP_MEAN_COR_COF(true, true),
+	SP_LEVEL_KL_DIVERGENCE_L1NORM(false, true),
+	SP_MEAN_DISJOINT(true, true);
+
+	private final boolean symmetric;
+	private final boolean superpixelBased;
+
+	DistanceMeasure(boolean symmetric, boolean superpixelBased) {
+		this.symmetric = symmetric;
+		this.superpixelBased = superpixelBased;
+	}
+
+	/**
+	 * @return true if distance(a, b) == distance(b, a) for this measure.
+	 */
+	public boolean isSymmetric() {
+		return symmetric;
+	}
+
+	/**
+	 * @return true if the measure depends on the superpixel segmentation.
+	 */
+	public boolean isSuperpixelBased() {
+		return superpixelBased;
+	}
 }
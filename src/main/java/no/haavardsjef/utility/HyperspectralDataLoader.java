@@ -10,27 +10,78 @@ import us.hebi.matlab.mat.types.Source;
 import us.hebi.matlab.mat.types.Sources;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 @Log4j2
 public class HyperspectralDataLoader {
 
 	public static INDArray loadData(String correctedDataPath) throws IOException {
-		Source source = Sources.openFile(correctedDataPath);
-		Mat5File file = Mat5.newReader(source).readMat();
-		Matrix matrix = file.getArray(0);
+		double[][][] dataCube = readDataCube(correctedDataPath);
+		log.info("Successfully loaded HSI data from " + correctedDataPath);
+		return Nd4j.create(dataCube);
+	}
+
+	/**
+	 * Opens the memory-mapped cube file stored next to the given .mat file. The cube file is created from the
+	 * .mat file the first time, and recreated whenever the .mat file is newer.
+	 *
+	 * @param correctedDataPath The path to the .mat file.
+	 * @return The opened cube file, which must be closed by the caller.
+	 * @throws IOException if neither file can be read, or the cube file cannot be written.
+	 */
+	public static CubeFile loadCube(String correctedDataPath) throws IOException {
+		Path matPath = Paths.get(correctedDataPath);
+		Path cubePath = Paths.get(correctedDataPath.replaceAll("\\.mat$", "") + CubeFile.EXTENSION);
+
+		if (!Files.exists(cubePath) || Files.getLastModifiedTime(cubePath).compareTo(Files.getLastModifiedTime(matPath)) < 0) {
+			log.info("Converting " + matPath + " to " + cubePath);
+			double[][][] dataCube = readDataCube(correctedDataPath);
+			CubeFile.write(dataCube, isFloat32Exact(dataCube) ? CubeFile.DataType.FLOAT32 : CubeFile.DataType.FLOAT64, cubePath);
+		}
+		CubeFile cube = CubeFile.open(cubePath);
+		log.info("Successfully mapped HSI data from " + cubePath);
+		return cube;
+	}
 
-		double[][][] dataCube = new double[matrix.getDimensions()[2]][matrix.getDimensions()[0]][matrix
-				.getDimensions()[1]];
+	/**
+	 * Reads the .mat file into an array of shape [numBands][height][width].
+	 */
+	private static double[][][] readDataCube(String correctedDataPath) throws IOException {
+		try (Source source = Sources.openFile(correctedDataPath)) {
+			Mat5File file = Mat5.newReader(source).readMat();
+			Matrix matrix = file.getArray(0);
 
-		for (int b = 0; b < matrix.getDimensions()[2]; b++) {
-			for (int x = 0; x < matrix.getDimensions()[1]; x++) {
-				for (int y = 0; y < matrix.getDimensions()[0]; y++) {
-					dataCube[b][y][x] = matrix.getDouble(new int[]{y, x, b});
+			int height = matrix.getDimensions()[0];
+			int width = matrix.getDimensions()[1];
+			int numBands = matrix.getDimensions()[2];
+			double[][][] dataCube = new double[numBands][height][width];
+
+			// Matlab arrays are column-major, so the linear index of (y, x, b) is y + x * height + b * height * width
+			for (int b = 0; b < numBands; b++) {
+				for (int x = 0; x < width; x++) {
+					int offset = x * height + b * height * width;
+					for (int y = 0; y < height; y++) {
+						dataCube[b][y][x] = matrix.getDouble(offset + y);
+					}
 				}
 			}
+			return dataCube;
 		}
-		log.info("Successfully loaded HSI data from " + correctedDataPath);
-		return Nd4j.create(dataCube);
+	}
+
+	private static boolean isFloat32Exact(double[][][] dataCube) {
+		for (double[][] band : dataCube) {
+			for (double[] row : band) {
+				for (double value : row) {
+					if ((double) (float) value != value) {
+						return false;
+					}
+				}
+			}
+		}
+		return true;
 	}
 
 	public static INDArray loadGroundTruth(String groundTruthPath) throws IOException {
@@ -0,0 +1,41 @@
+package no.haavardsjef.classification;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+
+public class ClassificationResultTest extends TestCase {
+
+	public void testAccuraciesAndKappa() {
+		ClassificationResult result = new ClassificationResult(2);
+		ClassificationResult.Run run = new ClassificationResult.Run(2, false);
+		// 45 of 50 class 1 and 40 of 50 class 2 correct
+		for (int i = 0; i < 100; i++) {
+			int trueLabel = i < 50 ? 1 : 2;
+			boolean correct = i < 45 || i >= 60;
+			run.add(i, trueLabel, correct ? trueLabel : 3 - trueLabel);
+		}
+		result.addRun(run);
+
+		assertEquals(0.85, result.getOverallAccuracy().getMean(), 1e-12);
+		assertEquals((0.9 + 0.8) / 2, result.getAverageOverallAccuracy().getMean(), 1e-12);
+		// Predicted 55 times 1 and 45 times 2, so the chance agreement is (50 * 55 + 50 * 45) / 100^2 = 0.5
+		assertEquals((0.85 - 0.5) / (1 - 0.5), result.getKappa().getMean(), 1e-12);
+		assertEquals(45, result.getConfusionMatrix()[0][0]);
+		assertEquals(10, result.getConfusionMatrix()[1][0]);
+	}
+
+	public void testPredictionsOnlyKeptWhenRequested() {
+		ClassificationResult.Run kept = new ClassificationResult.Run(2, true);
+		kept.add(7, 1, 2);
+		assertEquals(List.of(new Prediction(7, 1, 2)), kept.getPredictions());
+
+		ClassificationResult.Run streamed = new ClassificationResult.Run(2, false);
+		streamed.add(7, 1, 2);
+		try {
+			streamed.getPredictions();
+			fail("Expected IllegalStateException");
+		} catch (IllegalStateException expected) {
+		}
+	}
+}
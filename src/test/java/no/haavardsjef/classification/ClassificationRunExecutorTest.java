@@ -0,0 +1,26 @@
+package no.haavardsjef.classification;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class ClassificationRunExecutorTest extends TestCase {
+
+	private static ClassificationResult.Run randomRun(int runIndex, Random random) {
+		ClassificationResult.Run run = new ClassificationResult.Run(2, false);
+		for (int i = 0; i < 100; i++) {
+			run.add(i, 1, 1 + random.nextInt(2));
+		}
+		return run;
+	}
+
+	public void testConcurrentRunsMatchSequentialRuns() {
+		ClassificationResult sequential = new ClassificationRunExecutor(1).execute(8, 42L, 2, ClassificationRunExecutorTest::randomRun);
+		ClassificationResult concurrent = new ClassificationRunExecutor(4).execute(8, 42L, 2, ClassificationRunExecutorTest::randomRun);
+
+		double[] expected = sequential.getOverallAccuracy().getValues();
+		assertEquals(8, expected.length);
+		assertTrue(Arrays.equals(expected, concurrent.getOverallAccuracy().getValues()));
+	}
+}
@@ -0,0 +1,40 @@
+package no.haavardsjef.classification;
+
+import junit.framework.TestCase;
+
+public class PairedComparisonTest extends TestCase {
+
+	public void testContingencyTablesOfAllPairs() {
+		// 130 samples, so the correctness bitsets span several words
+		int numSamples = 130;
+		int[] pixelIndices = new int[numSamples];
+		int[] trueLabels = new int[numSamples];
+		int[][] predictedLabels = new int[3][numSamples];
+		for (int i = 0; i < numSamples; i++) {
+			pixelIndices[i] = i;
+			trueLabels[i] = 1 + i % 3;
+			predictedLabels[0][i] = i % 2 == 0 ? trueLabels[i] : 0; // Correct on even samples
+			predictedLabels[1][i] = i < 100 ? trueLabels[i] : 0; // Correct on the first 100 samples
+			predictedLabels[2][i] = trueLabels[i]; // Always correct
+		}
+		PairedComparison comparison = new PairedComparison(pixelIndices, trueLabels, predictedLabels);
+
+		for (int m1 = 0; m1 < 3; m1++) {
+			for (int m2 = 0; m2 < 3; m2++) {
+				int[][] expected = new int[2][2];
+				for (int i = 0; i < numSamples; i++) {
+					boolean correct1 = predictedLabels[m1][i] == trueLabels[i];
+					boolean correct2 = predictedLabels[m2][i] == trueLabels[i];
+					expected[correct1 ? 0 : 1][correct2 ? 0 : 1]++;
+				}
+				int[][] actual = comparison.getContingencyTable(m1, m2);
+				assertEquals(expected[0][0], actual[0][0]);
+				assertEquals(expected[0][1], actual[0][1]);
+				assertEquals(expected[1][0], actual[1][0]);
+				assertEquals(expected[1][1], actual[1][1]);
+			}
+		}
+		assertEquals(65.0 / 130, comparison.getOverallAccuracy(0), 1e-12);
+		assertEquals(1.0, comparison.getOverallAccuracy(2), 1e-12);
+	}
+}
@@ -0,0 +1,20 @@
+package no.haavardsjef.classification;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class SSClassifierTest extends TestCase {
+
+	public void testMajorityLabels() {
+		int[] groundTruth = {1, 1, 2, 2, 2, 1, 0, 3};
+		int[] superpixelLabels = {0, 0, 0, 1, 1, 1, 2, 3};
+		// Pixels 4 and 7 are test pixels, pixel 6 is unlabelled
+		int[] trainingPixels = {0, 1, 2, 3, 5};
+
+		int[] labels = SSClassifier.majorityLabels(trainingPixels, groundTruth, superpixelLabels, 4, 4);
+
+		// Superpixel 1 is a tie between label 1 and 2, superpixel 2 is unlabelled and superpixel 3 has only a test pixel
+		assertTrue(Arrays.equals(new int[]{1, 1, 0, 0}, labels));
+	}
+}
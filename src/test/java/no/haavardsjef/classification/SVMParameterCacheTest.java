@@ -0,0 +1,92 @@
+package no.haavardsjef.classification;
+
+import junit.framework.TestCase;
+import libsvm.svm_node;
+import libsvm.svm_parameter;
+import libsvm.svm_problem;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class SVMParameterCacheTest extends TestCase {
+
+	private static final List<Integer> BANDS = List.of(30, 10, 20);
+
+	private Path path;
+
+	@Override
+	protected void setUp() throws IOException {
+		path = Files.createTempFile("svm_parameter_cache", ".tsv");
+		Files.delete(path);
+	}
+
+	@Override
+	protected void tearDown() throws IOException {
+		Files.deleteIfExists(path);
+	}
+
+	public void testKeyDoesNotDependOnBandOrder() {
+		String key = SVMParameterCache.key("Salinas_corrected", 204, List.of(30, 10, 20), 0.1, "grid");
+		assertEquals(key, SVMParameterCache.key("Salinas_corrected", 204, List.of(10, 20, 30), 0.1, "grid"));
+		assertFalse(key.equals(SVMParameterCache.key("Salinas", 224, List.of(10, 20, 30), 0.1, "grid")));
+	}
+
+	public void testTuneOnceReturnsStoredEntryWithoutSearching() throws IOException {
+		store(0.5, 10);
+
+		// A search on a null problem would fail, so the parameters must come from the cache
+		SVMParameterCache cache = new SVMParameterCache(path, SVMParameterCache.ReusePolicy.TUNE_ONCE);
+		svm_parameter parameters = cache.getParameters("Salinas_corrected", 204, BANDS, 0.1, null);
+
+		assertEquals(0.5, parameters.gamma, 0);
+		assertEquals(10, parameters.C, 0);
+	}
+
+	public void testAlwaysTuneSearchesAgain() throws IOException {
+		store(123, 456);
+
+		SVMParameterCache cache = new SVMParameterCache(path, SVMParameterCache.ReusePolicy.ALWAYS_TUNE);
+		svm_parameter parameters = cache.getParameters("Salinas_corrected", 204, BANDS, 0.1, separableProblem());
+
+		assertFalse(parameters.gamma == 123);
+		assertFalse(parameters.C == 456);
+	}
+
+	public void testFileReloadsAfterRewrite() throws IOException {
+		SVMParameterCache cache = new SVMParameterCache(path, SVMParameterCache.ReusePolicy.TUNE_ONCE);
+		svm_parameter searched = cache.getParameters("Salinas_corrected", 204, BANDS, 0.1, separableProblem());
+		cache.getParameters("Salinas", 224, BANDS, 0.1, separableProblem());
+
+		SVMParameterCache reloaded = new SVMParameterCache(path, SVMParameterCache.ReusePolicy.TUNE_ONCE);
+		svm_parameter parameters = reloaded.getParameters("Salinas_corrected", 204, BANDS, 0.1, null);
+
+		assertEquals(2, reloaded.size());
+		assertEquals(searched.gamma, parameters.gamma, 0);
+		assertEquals(searched.C, parameters.C, 0);
+	}
+
+	private void store(double gamma, double C) throws IOException {
+		String key = SVMParameterCache.key("Salinas_corrected", 204, BANDS, 0.1, SVMParameterSearch.getGridDefinition(SVMParameterSearch.getStrategy()));
+		Files.writeString(path, key + "\t" + gamma + "\t" + C + "\t0.9\n");
+	}
+
+	/**
+	 * @return Two classes of 20 samples each, separated along a single feature.
+	 */
+	private static svm_problem separableProblem() {
+		svm_problem problem = new svm_problem();
+		problem.l = 40;
+		problem.x = new svm_node[problem.l][];
+		problem.y = new double[problem.l];
+		for (int i = 0; i < problem.l; i++) {
+			svm_node node = new svm_node();
+			node.index = 1;
+			node.value = i < 20 ? 0.01 * i : 1 + 0.01 * i;
+			problem.x[i] = new svm_node[]{node};
+			problem.y[i] = i < 20 ? 1 : 2;
+		}
+		return problem;
+	}
+}
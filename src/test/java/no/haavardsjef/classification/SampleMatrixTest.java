@@ -0,0 +1,55 @@
+package no.haavardsjef.classification;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class SampleMatrixTest extends TestCase {
+
+	public void testFromLabelledPixelsSkipsUnlabelled() {
+		double[] pixelFeatures = {1, 2, 3, 4, 5, 6, 7, 8};
+		int[] groundTruth = {2, 0, 1, 0};
+
+		SampleMatrix samples = SampleMatrix.fromLabelledPixels(pixelFeatures, 2, groundTruth);
+
+		assertEquals(2, samples.size());
+		assertEquals(0, samples.getPixelIndex(0));
+		assertEquals(2, samples.getPixelIndex(1));
+		assertEquals(1, samples.getLabel(1));
+		assertEquals(6.0, samples.getFeature(1, 1));
+	}
+
+	public void testNormalize() {
+		SampleMatrix samples = new SampleMatrix(new double[]{1, 5, 3, 5, 2, 5}, new int[]{1, 1, 2}, new int[]{0, 1, 2}, 2);
+
+		samples.normalize();
+
+		assertTrue(Arrays.equals(new double[]{0, 0, 1, 0, 0.5, 0}, samples.getFeatures()));
+	}
+
+	public void testStratifiedSplit() {
+		int[] labels = {1, 2, 1, 3, 1, 2, 1, 2, 1, 1};
+		int[] pixelIndices = new int[labels.length];
+		SampleMatrix samples = new SampleMatrix(new double[labels.length], labels, pixelIndices, 1);
+
+		int[][] split = samples.stratifiedSplit(0.5, new Random(1));
+
+		// ceil(6 * 0.5) + ceil(3 * 0.5) + ceil(1 * 0.5)
+		assertEquals(3 + 2 + 1, split[0].length);
+		assertEquals(labels.length - split[0].length, split[1].length);
+		int[] trainingPerLabel = new int[4];
+		for (int row : split[0]) {
+			trainingPerLabel[labels[row]]++;
+		}
+		assertTrue(Arrays.equals(new int[]{0, 3, 2, 1}, trainingPerLabel));
+
+		int[] all = new int[labels.length];
+		System.arraycopy(split[0], 0, all, 0, split[0].length);
+		System.arraycopy(split[1], 0, all, split[0].length, split[1].length);
+		Arrays.sort(all);
+		for (int i = 0; i < all.length; i++) {
+			assertEquals(i, all[i]);
+		}
+	}
+}
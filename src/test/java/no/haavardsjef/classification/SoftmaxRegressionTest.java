@@ -0,0 +1,60 @@
+package no.haavardsjef.classification;
+
+import junit.framework.TestCase;
+
+import java.util.Random;
+import java.util.stream.IntStream;
+
+public class SoftmaxRegressionTest extends TestCase {
+
+	public void testSeparatesLinearlySeparableClasses() {
+		// Three clusters around (0.2, 0.2), (0.8, 0.2) and (0.5, 0.8)
+		double[][] centers = {{0.2, 0.2}, {0.8, 0.2}, {0.5, 0.8}};
+		Random random = new Random(1);
+		int numSamples = 600;
+		double[] features = new double[numSamples * 2];
+		int[] labels = new int[numSamples];
+		for (int i = 0; i < numSamples; i++) {
+			labels[i] = 1 + i % 3;
+			features[i * 2] = centers[labels[i] - 1][0] + random.nextGaussian() * 0.05;
+			features[i * 2 + 1] = centers[labels[i] - 1][1] + random.nextGaussian() * 0.05;
+		}
+		SampleMatrix samples = new SampleMatrix(features, labels, new int[numSamples], 2);
+
+		assertTrue(accuracy(samples, 3, random) > 0.95);
+	}
+
+	public void testRandomFeaturesSeparateNonLinearClasses() {
+		// Class 1 inside a circle, class 2 outside it, not separable by a linear model on the raw features
+		Random random = new Random(2);
+		int numSamples = 1000;
+		double[] features = new double[numSamples * 2];
+		int[] labels = new int[numSamples];
+		for (int i = 0; i < numSamples; i++) {
+			double x = random.nextDouble();
+			double y = random.nextDouble();
+			features[i * 2] = x;
+			features[i * 2 + 1] = y;
+			labels[i] = (x - 0.5) * (x - 0.5) + (y - 0.5) * (y - 0.5) < 0.08 ? 1 : 2;
+		}
+		SampleMatrix samples = new SampleMatrix(features, labels, new int[numSamples], 2);
+		SampleMatrix randomFeatures = new RandomFourierFeatures(2, 200, 10, random).transform(samples);
+
+		assertEquals(200, randomFeatures.getNumFeatures());
+		assertTrue(accuracy(randomFeatures, 2, random) > 0.9);
+	}
+
+	private static double accuracy(SampleMatrix samples, int numClasses, Random random) {
+		int[] rows = IntStream.range(0, samples.size()).toArray();
+		SoftmaxRegression model = new SoftmaxRegression(numClasses, samples.getNumFeatures());
+		model.fit(samples, rows, 50, 1.0, 1e-4, random);
+		int[] predictedLabels = model.predict(samples, rows);
+		int numCorrect = 0;
+		for (int i = 0; i < rows.length; i++) {
+			if (predictedLabels[i] == samples.getLabel(i)) {
+				numCorrect++;
+			}
+		}
+		return (double) numCorrect / rows.length;
+	}
+}
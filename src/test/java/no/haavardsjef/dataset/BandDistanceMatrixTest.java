@@ -0,0 +1,31 @@
+package no.haavardsjef.dataset;
+
+import junit.framework.TestCase;
+import no.haavardsjef.utility.DistanceMeasure;
+
+public class BandDistanceMatrixTest extends TestCase {
+
+	public void testSymmetricMatrix() {
+		int size = 7;
+		BandDistanceMatrix matrix = BandDistanceMatrix.compute(size, DistanceMeasure.PIXEL_EUCLIDEAN, (i, j) -> Math.abs(i - j) + 0.5 * (i + j));
+
+		assertTrue(matrix.isSymmetric());
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				assertEquals(Math.abs(i - j) + 0.5 * (i + j), matrix.get(i, j), 1e-12);
+			}
+		}
+	}
+
+	public void testAsymmetricMatrix() {
+		int size = 5;
+		BandDistanceMatrix matrix = BandDistanceMatrix.compute(size, DistanceMeasure.SP_LEVEL_KL_DIVERGENCE_L1NORM, (i, j) -> i * 10 + j);
+
+		assertFalse(matrix.isSymmetric());
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				assertEquals(i * 10 + j, matrix.get(i, j), 1e-12);
+			}
+		}
+	}
+}
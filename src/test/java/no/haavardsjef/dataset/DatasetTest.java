@@ -1,8 +1,12 @@
 package no.haavardsjef.dataset;
 
 import junit.framework.TestCase;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.factory.Nd4j;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
 public class DatasetTest extends TestCase {
 
@@ -25,4 +29,39 @@ public class DatasetTest extends TestCase {
 			}
 		}
 	}
-}
\ No newline at end of file
+
+	public void testFeatureMatrixMatchesCube() {
+		Dataset ds = new Dataset(Nd4j.rand(DataType.FLOAT, 6, 3, 4), Nd4j.ones(DataType.INT, 3, 4));
+		List<Integer> selectedBands = List.of(4, 0, 2);
+
+		double[] featureMatrix = ds.getFeatureMatrix(selectedBands);
+
+		assertEquals(ds.getNumPixels() * selectedBands.size(), featureMatrix.length);
+		for (int p = 0; p < ds.getNumPixels(); p++) {
+			for (int k = 0; k < selectedBands.size(); k++) {
+				assertEquals(ds.getValue(selectedBands.get(k), p), featureMatrix[p * selectedBands.size() + k], 0.0);
+			}
+		}
+		assertSame(featureMatrix, ds.getFeatureMatrix(List.of(4, 0, 2)));
+	}
+
+	public void testFeatureMatrixCacheIsBoundedBySize() {
+		Dataset ds = new Dataset(Nd4j.rand(DataType.FLOAT, 6, 3, 4), Nd4j.ones(DataType.INT, 3, 4));
+		// Room for two matrices of 12 pixels and 3 bands
+		ds.setFeatureMatrixCacheBytes(2 * 12 * 3 * Double.BYTES);
+
+		double[] first = ds.getFeatureMatrix(List.of(0, 1, 2));
+		double[] second = ds.getFeatureMatrix(List.of(3, 4, 5));
+		assertSame(first, ds.getFeatureMatrix(List.of(0, 1, 2)));
+		ds.getFeatureMatrix(List.of(1, 2, 3));
+
+		// The least recently used matrix was evicted
+		assertSame(first, ds.getFeatureMatrix(List.of(0, 1, 2)));
+		assertNotSame(second, ds.getFeatureMatrix(List.of(3, 4, 5)));
+
+		ds.clearFeatureMatrices();
+		double[] rebuilt = ds.getFeatureMatrix(List.of(0, 1, 2));
+		assertNotSame(first, rebuilt);
+		assertTrue(Arrays.equals(first, rebuilt));
+	}
+}
@@ -0,0 +1,29 @@
+package no.haavardsjef.fcm;
+
+import junit.framework.TestCase;
+import no.haavardsjef.dataset.BenchmarkDataset;
+import no.haavardsjef.dataset.BenchmarkDatasetName;
+import no.haavardsjef.utility.DistanceMeasure;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+import java.io.IOException;
+import java.util.List;
+
+public class FuzzyCMeansTest extends TestCase {
+
+	public void testObjectiveFunctionMatchesMembershipMatrix() throws IOException {
+		BenchmarkDataset dataset = new BenchmarkDataset(BenchmarkDatasetName.clustering_easy);
+		FuzzyCMeans fcm = new FuzzyCMeans(dataset, 2.0, DistanceMeasure.PIXEL_EUCLIDEAN);
+		List<Integer> centroids = List.of(3, 120, 250, 401);
+
+		INDArray membershipMatrix = fcm.calculateMembershipMatrix(centroids);
+		double expected = 0.0;
+		for (int i = 0; i < membershipMatrix.size(0); i++) {
+			for (int j = 0; j < centroids.size(); j++) {
+				expected += Math.pow(membershipMatrix.getDouble(i, j), 2.0) * dataset.distance(DistanceMeasure.PIXEL_EUCLIDEAN, i, centroids.get(j));
+			}
+		}
+
+		assertEquals(expected, fcm.objectiveFunction(centroids), 1e-6 * expected);
+	}
+}
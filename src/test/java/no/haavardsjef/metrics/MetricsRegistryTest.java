@@ -0,0 +1,49 @@
+package no.haavardsjef.metrics;
+
+import junit.framework.TestCase;
+
+import java.util.Map;
+
+public class MetricsRegistryTest extends TestCase {
+
+	public void testTimerStatistics() {
+		MetricsRegistry registry = new MetricsRegistry();
+		Timer timer = registry.timer("stage");
+		for (int i = 1; i <= 100; i++) {
+			timer.record(i * 1000L);
+		}
+
+		assertSame(timer, registry.timer("stage"));
+		assertEquals(100, timer.getCount());
+		assertEquals(5_050_000L, timer.getTotalNanos());
+		assertEquals(100_000L, timer.getMaxNanos());
+		// Percentiles are bucketed to powers of two, so only within a factor of two of the true value
+		long p50 = timer.getPercentileNanos(50);
+		assertTrue(p50 >= 50_000L && p50 < 100_000L);
+		assertEquals(100_000L, timer.getPercentileNanos(100));
+	}
+
+	public void testMetricMapAndReset() {
+		MetricsRegistry registry = new MetricsRegistry();
+		registry.timer("stage").record(2_000_000L);
+		registry.counter("items").add(7);
+
+		Map<String, Double> metrics = registry.toMetricMap();
+		assertEquals(1.0, metrics.get("stage.count"));
+		assertEquals(2.0, metrics.get("stage.total_ms"), 1e-9);
+		assertEquals(7.0, metrics.get("items"));
+
+		registry.reset();
+		assertEquals(0, registry.timer("stage").getCount());
+		assertEquals(0, registry.counter("items").getCount());
+	}
+
+	public void testDisabledRegistryRecordsNothing() {
+		MetricsRegistry registry = MetricsRegistry.disabled();
+		registry.timer("stage").record(1000L);
+		registry.counter("items").increment();
+
+		assertEquals(0, registry.timer("stage").getCount());
+		assertEquals(0, registry.counter("items").getCount());
+	}
+}
@@ -0,0 +1,38 @@
+package no.haavardsjef.objectivefunctions;
+
+import junit.framework.TestCase;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CachedObjectiveFunctionTest extends TestCase {
+
+	public void testEvaluate() {
+		AtomicInteger evaluations = new AtomicInteger();
+		SquaredObjectiveFunction squared = new SquaredObjectiveFunction();
+		CachedObjectiveFunction cached = new CachedObjectiveFunction(candidate -> {
+			evaluations.incrementAndGet();
+			return squared.evaluate(candidate);
+		}, 2);
+
+		assertEquals(5.0f, cached.evaluate(List.of(1, 2)));
+		assertEquals(5.0f, cached.evaluate(List.of(1, 2)));
+		assertEquals(1, evaluations.get());
+		assertEquals(1, cached.getHits());
+		assertEquals(1, cached.getMisses());
+
+		// Fill the cache beyond its capacity, evicting the least recently used solution
+		cached.evaluate(List.of(3, 100));
+		cached.evaluate(List.of(4, 70));
+		assertEquals(2, cached.size());
+		assertEquals(5.0f, cached.evaluate(List.of(1, 2)));
+		assertEquals(4, evaluations.get());
+	}
+
+	public void testDuplicateIndicesAreNotCached() {
+		CachedObjectiveFunction cached = new CachedObjectiveFunction(new SquaredObjectiveFunction(), 10);
+
+		assertEquals(8.0f, cached.evaluate(List.of(2, 2)));
+		assertEquals(0, cached.size());
+	}
+}
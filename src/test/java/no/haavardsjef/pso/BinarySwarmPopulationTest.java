@@ -0,0 +1,41 @@
+package no.haavardsjef.pso;
+
+import junit.framework.TestCase;
+import no.haavardsjef.objectivefunctions.SquaredObjectiveFunction;
+import no.haavardsjef.utility.Bounds;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+public class BinarySwarmPopulationTest extends TestCase {
+
+	public void testSelectsDistinctBandsAndIsReproducible() {
+		Bounds bounds = new Bounds(0, 199);
+
+		BinarySwarmPopulation sequential = new BinarySwarmPopulation(30, 20, bounds, new SquaredObjectiveFunction(), 1L);
+		sequential.setEvaluationExecutor(null);
+		List<Integer> sequentialBands = sequential.optimize(50, 0.7f, 1.0f, 1.0f, false).getDiscretePositionSorted();
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		BinarySwarmPopulation parallel = new BinarySwarmPopulation(30, 20, bounds, new SquaredObjectiveFunction(), 1L);
+		parallel.setEvaluationExecutor(pool);
+		List<Integer> parallelBands = parallel.optimize(50, 0.7f, 1.0f, 1.0f, false).getDiscretePositionSorted();
+		pool.shutdown();
+
+		assertEquals(sequentialBands, parallelBands);
+		assertEquals(20, new HashSet<>(sequentialBands).size());
+		assertEquals(new SquaredObjectiveFunction().evaluate(sequentialBands), sequential.globalBestFitness, 0f);
+		// The optimum, bands 0 to 19, has fitness 2470, a random selection of 20 out of 200 bands about 266000
+		assertTrue(sequential.globalBestFitness < 50000);
+	}
+
+	public void testOptimizeWithoutIterationsHasNoPosition() {
+		BinarySwarmPopulation swarm = new BinarySwarmPopulation(10, 5, new Bounds(0, 99), new SquaredObjectiveFunction(), 1L);
+
+		Particle solution = swarm.optimize(0, 0.7f, 1.0f, 1.0f, false);
+
+		assertNull(solution.getPosition());
+		assertEquals(Float.POSITIVE_INFINITY, swarm.globalBestFitness);
+	}
+}
@@ -0,0 +1,35 @@
+package no.haavardsjef.pso;
+
+import junit.framework.TestCase;
+import no.haavardsjef.objectivefunctions.SquaredObjectiveFunction;
+import no.haavardsjef.utility.Bounds;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class IslandOptimizerTest extends TestCase {
+
+	public void testIslandsAreReproducibleAndShareTheBest() {
+		List<PSOParams> islandParams = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			PSOParams params = new PSOParams(5);
+			params.w = 0.5f + 0.1f * i;
+			islandParams.add(params);
+		}
+		Bounds bounds = new Bounds(0, 100);
+
+		IslandOptimizer first = new IslandOptimizer(islandParams, bounds, new SquaredObjectiveFunction(), 42L);
+		Particle firstSolution = first.optimize(5);
+		IslandOptimizer second = new IslandOptimizer(islandParams, bounds, new SquaredObjectiveFunction(), 42L);
+		Particle secondSolution = second.optimize(5);
+
+		assertTrue(Arrays.equals(firstSolution.getPosition(), secondSolution.getPosition()));
+		float bestFitness = new SquaredObjectiveFunction().evaluate(firstSolution.getDiscretePositionSorted());
+		for (SwarmPopulation island : first.getIslands()) {
+			assertTrue(island.globalBestFitness >= bestFitness);
+			assertEquals(100, island.numIterationsRan);
+		}
+		assertTrue(first.getFitnessCache().getHits() > 0);
+	}
+}
@@ -0,0 +1,152 @@
+package no.haavardsjef.pso;
+
+import junit.framework.TestCase;
+import no.haavardsjef.objectivefunctions.IObjectiveFunction;
+import no.haavardsjef.objectivefunctions.SquaredObjectiveFunction;
+import no.haavardsjef.utility.Bounds;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SwarmPopulationTest extends TestCase {
+
+	public void testParallelEvaluationIsReproducible() {
+		Bounds bounds = new Bounds(0, 100);
+
+		SwarmPopulation sequential = new SwarmPopulation(20, 5, bounds, new SquaredObjectiveFunction(), 42L);
+		sequential.setEvaluationExecutor(null);
+		Particle sequentialSolution = sequential.optimize(30, 0.7f, 1.0f, 1.0f, false, false);
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		SwarmPopulation parallel = new SwarmPopulation(20, 5, bounds, new SquaredObjectiveFunction(), 42L);
+		parallel.setEvaluationExecutor(pool);
+		Particle parallelSolution = parallel.optimize(30, 0.7f, 1.0f, 1.0f, false, false);
+		pool.shutdown();
+
+		assertEquals(sequential.globalBestFitness, parallel.globalBestFitness, 0f);
+		assertTrue(Arrays.equals(sequentialSolution.getPosition(), parallelSolution.getPosition()));
+	}
+
+	public void testAsynchronousOptimizationRespectsEvaluationBudget() {
+		AtomicInteger numEvaluations = new AtomicInteger();
+		SquaredObjectiveFunction squared = new SquaredObjectiveFunction();
+		IObjectiveFunction counting = bands -> {
+			numEvaluations.incrementAndGet();
+			return squared.evaluate(bands);
+		};
+
+		ForkJoinPool pool = new ForkJoinPool(4);
+		SwarmPopulation swarmPopulation = new SwarmPopulation(20, 5, new Bounds(0, 100), counting, 42L);
+		swarmPopulation.setEvaluationExecutor(pool);
+		Particle solution = swarmPopulation.optimizeAsynchronously(500, 0.7f, 1.0f, 1.0f);
+		pool.shutdown();
+
+		assertEquals(500, numEvaluations.get());
+		assertEquals(squared.evaluate(solution.getDiscretePositionSorted()), swarmPopulation.globalBestFitness, 0f);
+	}
+
+	public void testResumedOptimizationMatchesUninterruptedOptimization() throws IOException {
+		Bounds bounds = new Bounds(0, 100);
+		SwarmPopulation uninterrupted = new SwarmPopulation(20, 5, bounds, new SquaredObjectiveFunction(), 42L);
+		uninterrupted.setEvaluationExecutor(null);
+		Particle uninterruptedSolution = uninterrupted.optimize(30, 0.7f, 1.0f, 1.0f, false, false);
+
+		Path checkpoint = Files.createTempFile("pso", ".checkpoint");
+		Files.delete(checkpoint);
+		try {
+			crashAfterCheckpoint(checkpoint, bounds);
+			assertTrue(Files.exists(checkpoint));
+
+			AtomicInteger numEvaluations = new AtomicInteger();
+			SquaredObjectiveFunction squared = new SquaredObjectiveFunction();
+			IObjectiveFunction counting = bands -> {
+				numEvaluations.incrementAndGet();
+				return squared.evaluate(bands);
+			};
+			SwarmPopulation resumed = new SwarmPopulation(20, 5, bounds, counting, 42L);
+			resumed.setEvaluationExecutor(null);
+			resumed.setCheckpoint(checkpoint, 5, "squared");
+			Particle resumedSolution = resumed.optimize(30, 0.7f, 1.0f, 1.0f, false, false);
+
+			// Resumed from the checkpoint of iteration 10
+			assertEquals(20 * 20, numEvaluations.get());
+			assertEquals(30, resumed.numIterationsRan);
+			assertEquals(uninterrupted.globalBestFitness, resumed.globalBestFitness, 0f);
+			assertTrue(Arrays.equals(uninterruptedSolution.getPosition(), resumedSolution.getPosition()));
+			// A finished run leaves no checkpoint behind for the next run to resume
+			assertFalse(Files.exists(checkpoint));
+		} finally {
+			Files.deleteIfExists(checkpoint);
+		}
+	}
+
+	public void testUnseededSwarmResumesWithTheSeedOfTheCheckpoint() throws IOException {
+		Bounds bounds = new Bounds(0, 100);
+		SwarmPopulation uninterrupted = new SwarmPopulation(20, 5, bounds, new SquaredObjectiveFunction(), 42L);
+		uninterrupted.setEvaluationExecutor(null);
+		Particle uninterruptedSolution = uninterrupted.optimize(30, 0.7f, 1.0f, 1.0f, false, false);
+
+		Path checkpoint = Files.createTempFile("pso", ".checkpoint");
+		Files.delete(checkpoint);
+		try {
+			crashAfterCheckpoint(checkpoint, bounds);
+
+			// As after a restart of an experiment, which creates its swarm without a seed
+			SwarmPopulation resumed = new SwarmPopulation(20, 5, bounds, new SquaredObjectiveFunction());
+			resumed.setEvaluationExecutor(null);
+			resumed.setCheckpoint(checkpoint, 5, "squared");
+			Particle resumedSolution = resumed.optimize(30, 0.7f, 1.0f, 1.0f, false, false);
+
+			assertEquals(uninterrupted.globalBestFitness, resumed.globalBestFitness, 0f);
+			assertTrue(Arrays.equals(uninterruptedSolution.getPosition(), resumedSolution.getPosition()));
+		} finally {
+			Files.deleteIfExists(checkpoint);
+		}
+	}
+
+	public void testCheckpointOfAnotherRunIsRejected() throws IOException {
+		Bounds bounds = new Bounds(0, 100);
+		Path checkpoint = Files.createTempFile("pso", ".checkpoint");
+		Files.delete(checkpoint);
+		try {
+			crashAfterCheckpoint(checkpoint, bounds);
+
+			SwarmPopulation otherRun = new SwarmPopulation(20, 5, bounds, new SquaredObjectiveFunction(), 42L);
+			otherRun.setEvaluationExecutor(null);
+			otherRun.setCheckpoint(checkpoint, 5, "another objective");
+			otherRun.optimize(30, 0.7f, 1.0f, 1.0f, false, false);
+			fail("Resumed the checkpoint of another run");
+		} catch (IllegalStateException e) {
+			assertTrue(Files.exists(checkpoint));
+		} finally {
+			Files.deleteIfExists(checkpoint);
+		}
+	}
+
+	/**
+	 * Runs an optimization of 30 iterations that fails in the 13th iteration, after writing checkpoints at iteration 5 and 10.
+	 */
+	private static void crashAfterCheckpoint(Path checkpoint, Bounds bounds) {
+		AtomicInteger numEvaluations = new AtomicInteger();
+		SquaredObjectiveFunction squared = new SquaredObjectiveFunction();
+		IObjectiveFunction crashing = bands -> {
+			if (numEvaluations.incrementAndGet() > 12 * 20) {
+				throw new IllegalArgumentException("Simulated crash");
+			}
+			return squared.evaluate(bands);
+		};
+		SwarmPopulation crashed = new SwarmPopulation(20, 5, bounds, crashing, 42L);
+		crashed.setEvaluationExecutor(null);
+		crashed.setCheckpoint(checkpoint, 5, "squared");
+		try {
+			crashed.optimize(30, 0.7f, 1.0f, 1.0f, false, false);
+			fail("The optimization did not crash");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Simulated crash", e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,46 @@
+package no.haavardsjef.pso;
+
+import junit.framework.TestCase;
+import no.haavardsjef.utility.Bounds;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+public class SwarmStateTest extends TestCase {
+
+	public void testPositionsStayUniqueWithinBounds() {
+		// 30 of 40 bands, so duplicates are frequent and have to be repaired
+		Bounds bounds = new Bounds(0, 39);
+		SwarmState swarm = new SwarmState(50, 30, bounds, 7L);
+		float[] globalBest = swarm.getPosition(0);
+		for (int iteration = 0; iteration < 20; iteration++) {
+			for (int p = 0; p < swarm.getNumParticles(); p++) {
+				List<Integer> bands = swarm.getDiscretePositionSorted(p);
+				assertEquals(30, new HashSet<>(bands).size());
+				assertTrue(bands.get(0) >= bounds.lower() && bands.get(29) <= bounds.upper());
+			}
+			swarm.moveAll(globalBest, 0.7f, 1.0f, 1.0f);
+		}
+	}
+
+	public void testPersonalBestIsCopied() {
+		SwarmState swarm = new SwarmState(1, 3, new Bounds(0, 100), 1L);
+		swarm.updateFitness(0, 1.0f);
+		float[] best = Arrays.copyOfRange(swarm.bestPositions, 0, 3);
+		swarm.moveAll(null, 0.7f, 1.0f, 1.0f);
+		swarm.updateFitness(0, 2.0f);
+		assertTrue(Arrays.equals(best, Arrays.copyOfRange(swarm.bestPositions, 0, 3)));
+	}
+
+	public void testMovesDoNotDependOnOrder() {
+		SwarmState forward = new SwarmState(10, 5, new Bounds(0, 100), 3L);
+		SwarmState backward = new SwarmState(10, 5, new Bounds(0, 100), 3L);
+		float[] globalBest = forward.getPosition(0);
+		for (int p = 0; p < 10; p++) {
+			forward.move(p, globalBest, 0.7f, 1.0f, 1.0f);
+			backward.move(9 - p, globalBest, 0.7f, 1.0f, 1.0f);
+		}
+		assertTrue(Arrays.equals(forward.positions, backward.positions));
+	}
+}
@@ -0,0 +1,26 @@
+package no.haavardsjef.superpixelsegmentation;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class SuperpixelContainerTest extends TestCase {
+
+	public void testNeighboursDoNotWrapAroundRows() {
+		// Superpixels 1 and 2 only touch across the right edge of a row and the left edge of the next row
+		int[] superpixelLabels = {
+				0, 0, 1,
+				2, 0, 1,
+				2, 3, 3
+		};
+		SuperpixelContainer container = new SuperpixelContainer(superpixelLabels, 3);
+
+		int[][] neighbours = container.getNeighbours();
+
+		assertEquals(4, neighbours.length);
+		assertTrue(Arrays.equals(new int[]{1, 2, 3}, neighbours[0]));
+		assertTrue(Arrays.equals(new int[]{0, 3}, neighbours[1]));
+		assertTrue(Arrays.equals(new int[]{0, 3}, neighbours[2]));
+		assertTrue(Arrays.equals(new int[]{0, 1, 2}, neighbours[3]));
+	}
+}
@@ -0,0 +1,42 @@
+package no.haavardsjef.utility;
+
+import junit.framework.TestCase;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class CubeFileTest extends TestCase {
+
+	public void testWriteAndOpen() throws IOException {
+		double[][][] data = new double[3][4][5];
+		for (int b = 0; b < 3; b++) {
+			for (int y = 0; y < 4; y++) {
+				for (int x = 0; x < 5; x++) {
+					data[b][y][x] = b * 100 + y * 10 + x + 0.25;
+				}
+			}
+		}
+
+		for (CubeFile.DataType dataType : CubeFile.DataType.values()) {
+			Path path = Files.createTempFile("cube", CubeFile.EXTENSION);
+			CubeFile.write(data, dataType, path);
+
+			try (CubeFile cube = CubeFile.open(path)) {
+				assertEquals(3, cube.getNumBands());
+				assertEquals(4, cube.getHeight());
+				assertEquals(5, cube.getWidth());
+
+				double[] band = new double[cube.getNumPixels()];
+				cube.readBand(2, band, 0);
+				for (int y = 0; y < 4; y++) {
+					for (int x = 0; x < 5; x++) {
+						assertEquals(data[2][y][x], band[y * 5 + x], 0.0);
+						assertEquals(data[1][y][x], cube.get(1, y * 5 + x), 0.0);
+					}
+				}
+			}
+			Files.delete(path);
+		}
+	}
+}